@@ -0,0 +1,115 @@
+package com.example.family;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import family.AntiEntropyServiceGrpc;
+import family.AntiEntropyServiceGrpc.AntiEntropyServiceBlockingStub;
+import family.ChatMessage;
+import family.MerkleHashes;
+import family.MerkleRequest;
+import family.NodeInfo;
+import family.RangeRequest;
+import io.grpc.StatusRuntimeException;
+
+// Periodically pulls from one random peer whatever the chat store is missing. The two trees
+// are compared from the root down, one level per round trip and only below nodes that differ,
+// so an in-sync pair costs a single hash and repair traffic grows with the number of differing
+// ranges rather than with the size of the store. Pull-only: every node runs its own loop, so
+// a message one side lacks reaches it when that side picks the other.
+public class AntiEntropy {
+
+    private static final long INTERVAL_MILLIS = Long.parseLong(
+            System.getenv().getOrDefault("ANTI_ENTROPY_MS", "10000"));
+    private static final long TIMEOUT_MILLIS = Long.parseLong(
+            System.getenv().getOrDefault("ANTI_ENTROPY_TIMEOUT_MS", "2000"));
+
+    private final NodeRegistry registry;
+    private final ChannelPool channels;
+    private final MultiLeaderStore store;
+    private final ScheduledExecutorService scheduler = ExecutionMode.current().newScheduler("anti-entropy");
+
+    public AntiEntropy(NodeRegistry registry, ChannelPool channels, MultiLeaderStore store) {
+        this.registry = registry;
+        this.channels = channels;
+        this.store = store;
+    }
+
+    public void start() {
+        System.out.printf("[CONFIG] Anti-entropy interval=%dms timeout=%dms%n", INTERVAL_MILLIS, TIMEOUT_MILLIS);
+        scheduler.scheduleWithFixedDelay(this::tick, INTERVAL_MILLIS, INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void tick() {
+        MembershipView view = registry.view();
+        if (view.peerCount() == 0) {
+            return;
+        }
+        NodeInfo peer = view.peer(ThreadLocalRandom.current().nextInt(view.peerCount()));
+        try {
+            syncWith(peer);
+        } catch (StatusRuntimeException e) {
+            System.err.printf("[SYNC] %s:%d unavailable: %s%n", peer.getHost(), peer.getPort(), e.getStatus());
+        } catch (RuntimeException e) {
+            System.err.println("[SYNC] Round failed: " + e.getMessage());
+        }
+    }
+
+    private void syncWith(NodeInfo peer) {
+        long[] mine = store.merkleHashes();
+        List<Integer> differing = diff(peer, List.of(MerkleTree.ROOT), mine);
+        int roundTrips = 1;
+
+        while (!differing.isEmpty() && !MerkleTree.isLeaf(differing.get(0))) {
+            List<Integer> children = new ArrayList<>(differing.size() * 2);
+            for (int node : differing) {
+                children.add(2 * node);
+                children.add(2 * node + 1);
+            }
+            differing = diff(peer, children, mine);
+            roundTrips++;
+        }
+        if (differing.isEmpty()) {
+            return;
+        }
+
+        RangeRequest.Builder request = RangeRequest.newBuilder();
+        for (int node : differing) {
+            request.addLeaves(node - MerkleTree.LEAVES);
+        }
+        int pulled = 0;
+        Iterator<ChatMessage> messages = stub(peer).fetchRanges(request.build());
+        while (messages.hasNext()) {
+            store.storeRemote(VersionedMessage.fromProto(messages.next()));
+            pulled++;
+        }
+        System.out.printf("[SYNC] Pulled %d messages in %d ranges from %s:%d (%d hash round trips)%n",
+                pulled, differing.size(), peer.getHost(), peer.getPort(), roundTrips);
+    }
+
+    // The subset of nodes whose hash on the peer differs from ours
+    private List<Integer> diff(NodeInfo peer, List<Integer> nodes, long[] mine) {
+        MerkleHashes theirs = stub(peer).merkleNodes(MerkleRequest.newBuilder().addAllNodes(nodes).build());
+        List<Integer> differing = new ArrayList<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            int node = nodes.get(i);
+            if (theirs.getHashes(i) != mine[node]) {
+                differing.add(node);
+            }
+        }
+        return differing;
+    }
+
+    private AntiEntropyServiceBlockingStub stub(NodeInfo peer) {
+        return AntiEntropyServiceGrpc.newBlockingStub(channels.get(peer))
+                .withDeadlineAfter(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.family;
+
+import family.AntiEntropyServiceGrpc;
+import family.ChatMessage;
+import family.MerkleHashes;
+import family.MerkleRequest;
+import family.RangeRequest;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
+public class AntiEntropyServiceImpl extends AntiEntropyServiceGrpc.AntiEntropyServiceImplBase {
+
+    private final MultiLeaderStore store;
+
+    public AntiEntropyServiceImpl(MultiLeaderStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void merkleNodes(MerkleRequest request, StreamObserver<MerkleHashes> responseObserver) {
+        long[] hashes = store.merkleHashes();
+        MerkleHashes.Builder reply = MerkleHashes.newBuilder();
+        for (int node : request.getNodesList()) {
+            if (node < MerkleTree.ROOT || node >= hashes.length) {
+                responseObserver.onError(Status.INVALID_ARGUMENT
+                        .withDescription("no tree node " + node).asRuntimeException());
+                return;
+            }
+            reply.addHashes(hashes[node]);
+        }
+        responseObserver.onNext(reply.build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void fetchRanges(RangeRequest request, StreamObserver<ChatMessage> responseObserver) {
+        for (int leaf : request.getLeavesList()) {
+            if (leaf < 0 || leaf >= MerkleTree.LEAVES) {
+                responseObserver.onError(Status.INVALID_ARGUMENT
+                        .withDescription("no tree leaf " + leaf).asRuntimeException());
+                return;
+            }
+        }
+        for (int leaf : request.getLeavesList()) {
+            for (VersionedMessage message : store.getRange(leaf)) {
+                responseObserver.onNext(message.toProto());
+            }
+        }
+        responseObserver.onCompleted();
+    }
+}
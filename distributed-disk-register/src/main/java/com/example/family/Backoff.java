@@ -0,0 +1,17 @@
+package com.example.family;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+public final class Backoff {
+
+    private Backoff() {
+    }
+
+    // Exponential backoff with "equal jitter": half the window is fixed, half is random
+    public static long delayMillis(int attempt, long baseMillis, long maxMillis) {
+        int shift = Math.min(Math.max(attempt, 0), 30);
+        long window = Math.min(maxMillis, baseMillis << shift);
+        long half = window / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.family;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Thread-per-connection reader for the virtual-thread execution mode, where blocking reads are cheap
+public class BlockingTcpConnection implements Runnable {
+
+    private static final int READ_BUFFER_BYTES = 8 * 1024;
+    private static final long BACKPRESSURE_POLL_MILLIS = 10;
+
+    private final SocketChannel channel;
+    private final Function<String, CompletableFuture<String>> lineHandler;
+    private final BroadcastQueue queue;
+
+    public BlockingTcpConnection(SocketChannel channel, Function<String, CompletableFuture<String>> lineHandler, BroadcastQueue queue) {
+        this.channel = channel;
+        this.lineHandler = lineHandler;
+        this.queue = queue;
+    }
+
+    @Override
+    public void run() {
+        LineFramer framer = new LineFramer(LineFramer.MAX_LINE_BYTES);
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_BYTES);
+
+        try (SocketChannel ch = channel) {
+            Consumer<String> sink = line -> reply(ch, lineHandler.apply(line));
+            while (true) {
+                // Same contract as the event loops: no reads while members are behind
+                while (queue.isOverloaded()) {
+                    Thread.sleep(BACKPRESSURE_POLL_MILLIS);
+                }
+
+                buffer.clear();
+                if (ch.read(buffer) < 0) {
+                    framer.finish(sink);
+                    return;
+                }
+                buffer.flip();
+                if (!framer.feed(buffer, sink)) {
+                    System.err.println("TCP client sent a line longer than "
+                            + LineFramer.MAX_LINE_BYTES + " bytes, closing");
+                    return;
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("TCP client handler error: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Blocking here only parks this connection's virtual thread
+    private static void reply(SocketChannel channel, CompletableFuture<String> pending) {
+        if (pending == null) {
+            return;
+        }
+        String reply;
+        try {
+            reply = pending.join();
+        } catch (RuntimeException e) {
+            reply = "ERROR internal error";
+        }
+        ByteBuffer out = ByteBuffer.wrap((reply + "\n").getBytes(StandardCharsets.UTF_8));
+        try {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.family;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import family.Empty;
+import family.FamilyServiceGrpc;
+import family.FamilyView;
+import family.NodeInfo;
+import io.grpc.stub.StreamObserver;
+
+// Finds the family at startup in a fixed amount of time. Every candidate (the SEEDS list, or
+// else the local port range) is asked for its view at once under a short deadline, and this
+// node joins through the first one that answers instead of walking the ports one by one.
+public class Bootstrap {
+
+    private static final String SEEDS = System.getenv().getOrDefault("SEEDS", "");
+    private static final int PORT_SPAN = Integer.parseInt(
+            System.getenv().getOrDefault("BOOTSTRAP_PORT_SPAN", "32"));
+    private static final long TIMEOUT_MILLIS = Long.parseLong(
+            System.getenv().getOrDefault("BOOTSTRAP_TIMEOUT_MS", "500"));
+    private static final Path PORT_LOCKS = Paths.get(System.getProperty("java.io.tmpdir"), "family-ports");
+    // Marks the end of the probe results once every candidate has answered or failed
+    private static final NodeInfo NO_MORE = NodeInfo.getDefaultInstance();
+
+    // Held until the process exits so no other local node can take the same port
+    private static FileChannel portLock;
+
+    private final NodeInfo self;
+    private final NodeRegistry registry;
+    private final ChannelPool channels;
+    private final int firstPort;
+
+    public Bootstrap(NodeInfo self, NodeRegistry registry, ChannelPool channels, int firstPort) {
+        this.self = self;
+        this.registry = registry;
+        this.channels = channels;
+        this.firstPort = firstPort;
+    }
+
+    // Probing a port and later binding it is racy when several nodes start together, so a
+    // port only counts as ours once we also hold its lock file. The lock is tried first: ports
+    // of local siblings fail it at once, and only an unclaimed port gets a bind probe, which is
+    // a local call that fails immediately rather than a network wait worth parallelising.
+    public static int claimPort(int startPort) throws IOException {
+        Files.createDirectories(PORT_LOCKS);
+        for (int port = startPort; port < 65536; port++) {
+            FileChannel channel = FileChannel.open(PORT_LOCKS.resolve(port + ".lock"),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock = channel.tryLock();
+            if (lock != null && isFree(port)) {
+                portLock = channel;
+                return port;
+            }
+            channel.close();
+        }
+        throw new IOException("No free port from " + startPort);
+    }
+
+    private static boolean isFree(int port) {
+        ServerSocket probe;
+        try {
+            probe = new ServerSocket(port);
+        } catch (IOException e) {
+            return false;
+        }
+        try {
+            probe.close();
+        } catch (IOException ignored) {
+        }
+        return true;
+    }
+
+    public void join() {
+        long started = System.nanoTime();
+        List<NodeInfo> candidates = candidates();
+        BlockingQueue<NodeInfo> answered = new LinkedBlockingQueue<>();
+        AtomicInteger outstanding = new AtomicInteger(candidates.size());
+
+        for (NodeInfo candidate : candidates) {
+            FamilyServiceGrpc.newStub(channels.get(candidate))
+                    .withDeadlineAfter(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                    .getFamily(Empty.getDefaultInstance(), new StreamObserver<FamilyView>() {
+                        @Override
+                        public void onNext(FamilyView value) {
+                            answered.add(candidate);
+                        }
+
+                        @Override
+                        public void onError(Throwable t) {
+                            finished();
+                        }
+
+                        @Override
+                        public void onCompleted() {
+                            finished();
+                        }
+
+                        private void finished() {
+                            if (outstanding.decrementAndGet() == 0) {
+                                answered.add(NO_MORE);
+                            }
+                        }
+                    });
+        }
+
+        NodeInfo through = null;
+        FamilyView view = null;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS * 2);
+        try {
+            while (view == null && !candidates.isEmpty()) {
+                NodeInfo seed = answered.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (seed == null || seed == NO_MORE) {
+                    break;
+                }
+                try {
+                    view = FamilyServiceGrpc.newBlockingStub(channels.get(seed))
+                            .withDeadlineAfter(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                            .join(self);
+                    through = seed;
+                } catch (Exception e) {
+                    System.err.printf("[BOOTSTRAP] Join through %s:%d failed: %s%n",
+                            seed.getHost(), seed.getPort(), e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        if (view != null) {
+            registry.addAll(view.getMembersList());
+        }
+        // The pool only drops channels of members that leave, so candidates that turned out not
+        // to be members are closed here; calls still in flight finish or hit their deadlines
+        MembershipView members = registry.view();
+        for (NodeInfo candidate : candidates) {
+            if (!members.contains(candidate)) {
+                channels.evict(candidate);
+            }
+        }
+        if (view == null) {
+            System.out.printf("[BOOTSTRAP] No family among %d candidates after %d ms, starting a new one%n",
+                    candidates.size(), elapsed);
+            return;
+        }
+        if (!registry.propagatesJoins()) {
+            announce(view, through);
+        }
+        System.out.printf("[BOOTSTRAP] Joined through %s:%d in %d ms (%d candidates), family size now: %d%n",
+                through.getHost(), through.getPort(), elapsed, candidates.size(), registry.view().size());
+    }
+
+    // Members only learn about a join by being told, so tell the rest of the view in parallel
+    private void announce(FamilyView view, NodeInfo through) {
+        for (NodeInfo member : view.getMembersList()) {
+            if (member.equals(self) || member.equals(through)) {
+                continue;
+            }
+            FamilyServiceGrpc.newStub(channels.get(member))
+                    .withDeadlineAfter(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                    .join(self, new StreamObserver<FamilyView>() {
+                        @Override
+                        public void onNext(FamilyView value) {
+                            registry.addAll(value.getMembersList());
+                        }
+
+                        @Override
+                        public void onError(Throwable t) {
+                            System.err.printf("[BOOTSTRAP] Could not announce to %s:%d: %s%n",
+                                    member.getHost(), member.getPort(), t.getMessage());
+                        }
+
+                        @Override
+                        public void onCompleted() {
+                        }
+                    });
+        }
+    }
+
+    private List<NodeInfo> candidates() {
+        List<NodeInfo> candidates = new ArrayList<>();
+        if (!SEEDS.isBlank()) {
+            for (String seed : SEEDS.split(",")) {
+                String address = seed.trim();
+                int colon = address.lastIndexOf(':');
+                int port = colon > 0 ? parsePort(address.substring(colon + 1)) : -1;
+                if (port < 0) {
+                    System.err.println("[BOOTSTRAP] Ignoring malformed seed: " + address);
+                    continue;
+                }
+                NodeInfo node = NodeInfo.newBuilder()
+                        .setHost(address.substring(0, colon))
+                        .setPort(port)
+                        .build();
+                if (!node.equals(self)) {
+                    candidates.add(node);
+                }
+            }
+            return candidates;
+        }
+        for (int port = firstPort; port < firstPort + PORT_SPAN; port++) {
+            if (port != self.getPort()) {
+                candidates.add(NodeInfo.newBuilder().setHost(self.getHost()).setPort(port).build());
+            }
+        }
+        return candidates;
+    }
+
+    // -1 unless the text is a usable port number
+    private static int parsePort(String text) {
+        try {
+            int port = Integer.parseInt(text);
+            return port > 0 && port < 65536 ? port : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
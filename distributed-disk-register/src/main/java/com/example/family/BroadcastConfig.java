@@ -0,0 +1,65 @@
+package com.example.family;
+
+public class BroadcastConfig {
+
+    private final int maxInFlight;
+    private final int maxBatchSize;
+    private final long lingerMillis;
+    private final int queueCapacity;
+    private final OverflowPolicy overflowPolicy;
+
+    public BroadcastConfig(int maxInFlight, int maxBatchSize, long lingerMillis,
+                           int queueCapacity, OverflowPolicy overflowPolicy) {
+        this.maxInFlight = maxInFlight;
+        this.maxBatchSize = maxBatchSize;
+        this.lingerMillis = lingerMillis;
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public static BroadcastConfig fromEnvironment() {
+        return new BroadcastConfig(
+                Integer.parseInt(System.getenv().getOrDefault("BROADCAST_MAX_IN_FLIGHT", "32")),
+                Integer.parseInt(System.getenv().getOrDefault("BROADCAST_BATCH_SIZE", "64")),
+                Long.parseLong(System.getenv().getOrDefault("BROADCAST_LINGER_MS", "5")),
+                Integer.parseInt(System.getenv().getOrDefault("BROADCAST_QUEUE_CAPACITY", "10000")),
+                OverflowPolicy.parse(System.getenv().getOrDefault("BROADCAST_OVERFLOW", "block"))
+        );
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public long getLingerMillis() {
+        return lingerMillis;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    // Ingress pauses once any member's queue reaches this depth...
+    public int getHighWaterMark() {
+        return Math.max(1, queueCapacity * 8 / 10);
+    }
+
+    // ...and resumes when every member's queue has drained below this one
+    public int getLowWaterMark() {
+        return queueCapacity / 2;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("inFlight=%d batch=%d linger=%dms capacity=%d overflow=%s",
+                maxInFlight, maxBatchSize, lingerMillis, queueCapacity, overflowPolicy);
+    }
+}
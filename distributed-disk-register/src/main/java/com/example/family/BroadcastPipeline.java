@@ -0,0 +1,443 @@
+package com.example.family;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import family.ChatBatch;
+import family.NodeInfo;
+
+public class BroadcastPipeline {
+
+    private static final int MAX_RETRIES = 3;
+    private static final long RETRY_BASE_MILLIS = 100;
+    private static final long RETRY_MAX_MILLIS = 10_000;
+    private static final int BREAKER_FAILURE_THRESHOLD = 5;
+    private static final long BREAKER_OPEN_BASE_MILLIS = 1_000;
+    private static final long BREAKER_OPEN_MAX_MILLIS = 30_000;
+
+    private final NodeInfo target;
+    private final ReplicationStream stream;
+    private final CircuitBreaker breaker;
+    private final ScheduledExecutorService scheduler;
+    private final BroadcastQueue owner;
+    private final int maxInFlight;
+    private final int maxBatchSize;
+    private final long lingerMillis;
+    private final int capacity;
+    private final int highWaterMark;
+    private final int lowWaterMark;
+    private final OverflowPolicy overflowPolicy;
+    private final Queue<BroadcastTask> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    // Slots held by queued tasks and by failed tasks waiting to be retried; never above capacity
+    private final AtomicInteger occupied = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger retrying = new AtomicInteger();
+    private final AtomicBoolean lingerScheduled = new AtomicBoolean();
+    private final AtomicBoolean wakeUpScheduled = new AtomicBoolean();
+    private final AtomicBoolean aboveHighWater = new AtomicBoolean();
+    private final AtomicInteger blockedProducers = new AtomicInteger();
+    private final Object spaceMonitor = new Object();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean flushDue;
+    private volatile boolean closed;
+
+    public BroadcastPipeline(NodeInfo target, ChannelPool channels, ScheduledExecutorService scheduler,
+                             BroadcastConfig config, BroadcastQueue owner) {
+        this.target = target;
+        this.stream = new ReplicationStream(target, channels, scheduler);
+        this.breaker = new CircuitBreaker(target.getHost() + ":" + target.getPort(),
+                BREAKER_FAILURE_THRESHOLD, BREAKER_OPEN_BASE_MILLIS, BREAKER_OPEN_MAX_MILLIS);
+        this.scheduler = scheduler;
+        this.owner = owner;
+        this.maxInFlight = config.getMaxInFlight();
+        this.maxBatchSize = config.getMaxBatchSize();
+        this.lingerMillis = config.getLingerMillis();
+        this.capacity = config.getQueueCapacity();
+        this.highWaterMark = config.getHighWaterMark();
+        this.lowWaterMark = config.getLowWaterMark();
+        this.overflowPolicy = config.getOverflowPolicy();
+    }
+
+    public void submit(BroadcastTask task) {
+        if (closed) {
+            fail(task);
+            return;
+        }
+        if (!reserveSpace(task)) {
+            return;
+        }
+        enqueue(task);
+    }
+
+    // Claims a slot without ever waiting, whatever the overflow policy; false when full.
+    // DROP_OLDEST still makes room, logging what it drops only if the log has space.
+    boolean tryClaim() {
+        if (tryReserve()) {
+            return true;
+        }
+        if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+            BroadcastTask oldest;
+            while ((oldest = pending.poll()) != null) {
+                pendingCount.decrementAndGet();
+                occupied.decrementAndGet();
+                dropped.incrementAndGet();
+                failWithoutWaiting(oldest);
+                if (tryReserve()) {
+                    return true;
+                }
+            }
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    void releaseClaim() {
+        occupied.decrementAndGet();
+        onSpaceFreed();
+    }
+
+    // Queues a task into the slot tryClaim took for it
+    void submitClaimed(BroadcastTask task) {
+        if (closed) {
+            occupied.decrementAndGet();
+            failWithoutWaiting(task);
+            return;
+        }
+        enqueue(task);
+    }
+
+    private void enqueue(BroadcastTask task) {
+        pending.add(task);
+        int queued = pendingCount.incrementAndGet();
+        updateWatermark();
+        if (queued < maxBatchSize) {
+            scheduleLinger();
+        }
+        drain();
+    }
+
+    public void close() {
+        closed = true;
+        BroadcastTask task;
+        while ((task = pending.poll()) != null) {
+            pendingCount.decrementAndGet();
+            occupied.decrementAndGet();
+            fail(task);
+        }
+        clearWatermark();
+        synchronized (spaceMonitor) {
+            spaceMonitor.notifyAll();
+        }
+        stream.close();
+    }
+
+    public NodeInfo getTarget() {
+        return target;
+    }
+
+    public int getPending() {
+        return pendingCount.get();
+    }
+
+    public int getRetrying() {
+        return retrying.get();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public CircuitBreaker.State getCircuitState() {
+        return breaker.getState();
+    }
+
+    // Returns true once the task holds a slot
+    private boolean reserveSpace(BroadcastTask task) {
+        switch (overflowPolicy) {
+            case REJECT:
+                if (!tryReserve()) {
+                    rejected.incrementAndGet();
+                    fail(task);
+                    return false;
+                }
+                return true;
+
+            case DROP_OLDEST:
+                while (!tryReserve()) {
+                    BroadcastTask oldest = pending.poll();
+                    if (oldest == null) {
+                        // Every slot is held by retries, which are older still
+                        dropped.incrementAndGet();
+                        fail(task);
+                        return false;
+                    }
+                    pendingCount.decrementAndGet();
+                    occupied.decrementAndGet();
+                    dropped.incrementAndGet();
+                    fail(oldest);
+                }
+                return true;
+
+            case BLOCK:
+            default:
+                if (tryReserve()) {
+                    return true;
+                }
+                blockedProducers.incrementAndGet();
+                boolean reserved = false;
+                try {
+                    synchronized (spaceMonitor) {
+                        while (!closed && !(reserved = tryReserve())) {
+                            spaceMonitor.wait(100);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    rejected.incrementAndGet();
+                    fail(task);
+                    return false;
+                } finally {
+                    blockedProducers.decrementAndGet();
+                }
+                if (!reserved) {
+                    fail(task);
+                    return false;
+                }
+                return true;
+        }
+    }
+
+    // The check and the claim are one CAS, so concurrent producers never overshoot capacity
+    private boolean tryReserve() {
+        while (true) {
+            int current = occupied.get();
+            if (current >= capacity) {
+                return false;
+            }
+            if (occupied.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void updateWatermark() {
+        int queued = occupied.get();
+        if (closed || queued < lowWaterMark) {
+            clearWatermark();
+        } else if (queued >= highWaterMark && aboveHighWater.compareAndSet(false, true)) {
+            owner.onWatermarkCrossed(true);
+            // close() sets closed before clearing, so if it slipped in since the check above,
+            // either it sees this mark or this sees closed; a closed pipeline never stays marked
+            if (closed) {
+                clearWatermark();
+            }
+        }
+    }
+
+    private void clearWatermark() {
+        if (aboveHighWater.compareAndSet(true, false)) {
+            owner.onWatermarkCrossed(false);
+        }
+    }
+
+    private void onSpaceFreed() {
+        updateWatermark();
+        if (blockedProducers.get() > 0) {
+            synchronized (spaceMonitor) {
+                spaceMonitor.notifyAll();
+            }
+        }
+    }
+
+    private void scheduleLinger() {
+        if (lingerMillis <= 0) {
+            flushDue = true;
+            return;
+        }
+        if (lingerScheduled.compareAndSet(false, true)) {
+            scheduler.schedule(() -> {
+                lingerScheduled.set(false);
+                flushDue = true;
+                drain();
+            }, lingerMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void scheduleWakeUp(long delayMillis) {
+        if (delayMillis > 0 && wakeUpScheduled.compareAndSet(false, true)) {
+            scheduler.schedule(() -> {
+                wakeUpScheduled.set(false);
+                flushDue = true;
+                drain();
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void drain() {
+        while (!closed) {
+            int queued = pendingCount.get();
+            if (queued == 0) {
+                flushDue = false;
+                return;
+            }
+            // Nagle-style: hold a partial batch until it fills up or the linger time passes
+            if (queued < maxBatchSize && !flushDue) {
+                return;
+            }
+
+            int current = inFlight.get();
+            if (current >= maxInFlight) {
+                return;
+            }
+            if (!inFlight.compareAndSet(current, current + 1)) {
+                continue;
+            }
+            // While the target is down its tasks stay parked here instead of being spun on
+            long permit = breaker.tryAcquire();
+            if (permit < 0) {
+                inFlight.decrementAndGet();
+                scheduleWakeUp(breaker.remainingOpenMillis());
+                return;
+            }
+
+            List<BroadcastTask> batch = new ArrayList<>(Math.min(queued, maxBatchSize));
+            BroadcastTask task;
+            while (batch.size() < maxBatchSize && (task = pending.poll()) != null) {
+                pendingCount.decrementAndGet();
+                occupied.decrementAndGet();
+                batch.add(task);
+            }
+
+            if (batch.isEmpty()) {
+                // Another thread took the remaining tasks; give the slot back and re-check
+                inFlight.decrementAndGet();
+                breaker.release();
+                continue;
+            }
+            onSpaceFreed();
+            send(batch, permit);
+        }
+    }
+
+    private void send(List<BroadcastTask> batch, long permit) {
+        ChatBatch.Builder request = ChatBatch.newBuilder();
+        for (BroadcastTask task : batch) {
+            request.addMessages(task.getMessage());
+        }
+
+        stream.send(request, () -> onSendCompleted(batch), t -> onSendFailed(batch, permit, t));
+    }
+
+    private void onSendCompleted(List<BroadcastTask> batch) {
+        inFlight.decrementAndGet();
+        breaker.onSuccess();
+        batches.incrementAndGet();
+        delivered.addAndGet(batch.size());
+
+        System.out.printf("[OK] Broadcasted %d message(s) to %s:%d%n",
+                batch.size(), target.getHost(), target.getPort());
+        for (BroadcastTask task : batch) {
+            NodeInfo sender = task.getSender();
+            ChatLogger.logBroadcast(sender.getHost(), sender.getPort(),
+                    target.getHost(), target.getPort(), task.getMessage().getText(), true);
+        }
+
+        drain();
+    }
+
+    private void onSendFailed(List<BroadcastTask> batch, long permit, Throwable t) {
+        inFlight.decrementAndGet();
+        breaker.onFailure(permit);
+        System.err.printf("[FAIL] Failed to send %d message(s) to %s:%d (attempt %d/%d): %s%n",
+                batch.size(), target.getHost(), target.getPort(),
+                batch.get(0).getRetryCount() + 1, MAX_RETRIES, t.getMessage());
+
+        List<BroadcastTask> retries = new ArrayList<>(batch.size());
+        for (BroadcastTask task : batch) {
+            if (task.getRetryCount() >= MAX_RETRIES || closed) {
+                fail(task);
+            } else if (!tryReserve()) {
+                // A retry waits in a queue slot like any other task; this callback cannot wait
+                // for one to free up, and as the oldest message it is the one that gives way
+                dropped.incrementAndGet();
+                fail(task);
+            } else {
+                task.incrementRetry();
+                retries.add(task);
+            }
+        }
+
+        if (!retries.isEmpty()) {
+            long delay = Backoff.delayMillis(breaker.getConsecutiveFailures() - 1,
+                    RETRY_BASE_MILLIS, RETRY_MAX_MILLIS);
+            retrying.addAndGet(retries.size());
+            updateWatermark();
+            scheduler.schedule(() -> requeue(retries), delay, TimeUnit.MILLISECONDS);
+        }
+
+        drain();
+    }
+
+    // The tasks already hold their slots from onSendFailed
+    private void requeue(List<BroadcastTask> tasks) {
+        retrying.addAndGet(-tasks.size());
+        if (closed) {
+            occupied.addAndGet(-tasks.size());
+            tasks.forEach(this::fail);
+            onSpaceFreed();
+            return;
+        }
+        pending.addAll(tasks);
+        pendingCount.addAndGet(tasks.size());
+        updateWatermark();
+        flushDue = true;
+        drain();
+    }
+
+    private void fail(BroadcastTask task) {
+        failed.incrementAndGet();
+        NodeInfo sender = task.getSender();
+        ChatLogger.logBroadcast(sender.getHost(), sender.getPort(),
+                target.getHost(), target.getPort(), task.getMessage().getText(), false);
+    }
+
+    // For the non-waiting paths; the log entry is skipped if the log is behind
+    private void failWithoutWaiting(BroadcastTask task) {
+        failed.incrementAndGet();
+        NodeInfo sender = task.getSender();
+        ChatLogger.tryLogBroadcast(sender.getHost(), sender.getPort(),
+                target.getHost(), target.getPort(), task.getMessage().getText(), false);
+    }
+}
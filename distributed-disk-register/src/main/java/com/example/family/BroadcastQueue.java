@@ -1,101 +1,127 @@
 package com.example.family;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import family.ChatMessage;
-import family.FamilyServiceGrpc;
 import family.NodeInfo;
-import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
 
 public class BroadcastQueue {
 
-    private static final int MAX_RETRIES = 3;
-    private final BlockingQueue<BroadcastTask> queue = new LinkedBlockingQueue<>();
-    private final ExecutorService executor = Executors.newFixedThreadPool(5);
+    private final ConcurrentMap<NodeInfo, BroadcastPipeline> pipelines = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler =
+            ExecutionMode.current().newScheduler("broadcast-scheduler");
+    private final ChannelPool channels;
+    private final BroadcastConfig config;
+    private final AtomicInteger overloadedTargets = new AtomicInteger();
+    private final AtomicLong backpressurePauses = new AtomicLong();
     private volatile boolean running = true;
 
-    public BroadcastQueue() {
-        startWorkers();
+    public BroadcastQueue(NodeRegistry registry, ChannelPool channels) {
+        this(registry, channels, BroadcastConfig.fromEnvironment());
+    }
+
+    public BroadcastQueue(NodeRegistry registry, ChannelPool channels, BroadcastConfig config) {
+        this.channels = channels;
+        this.config = config;
+        registry.addRemovalListener(this::removeTarget);
+        System.out.println("[CONFIG] Broadcast " + config);
     }
 
     public void enqueue(NodeInfo target, ChatMessage message, NodeInfo sender) {
         BroadcastTask task = new BroadcastTask(target, message, sender);
-        try {
-            queue.put(task);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            System.err.println("Failed to enqueue broadcast task: " + e.getMessage());
+        if (!running) {
+            System.err.println("Failed to enqueue broadcast task: queue is shut down");
+            return;
         }
+        pipelineFor(target).submit(task);
     }
 
-    private void startWorkers() {
-        for (int i = 0; i < 5; i++) {
-            executor.submit(this::workerLoop);
+    // Never waits: claims a queue slot on every peer's pipeline, or none of them and returns
+    // null when any is full, so a message is either queued for the whole family or refused
+    public Reservation tryReserve(MembershipView view) {
+        if (!running) {
+            return null;
         }
+        BroadcastPipeline[] claimed = new BroadcastPipeline[view.peerCount()];
+        for (int i = 0; i < claimed.length; i++) {
+            BroadcastPipeline pipeline = pipelineFor(view.peer(i));
+            if (!pipeline.tryClaim()) {
+                for (int j = 0; j < i; j++) {
+                    claimed[j].releaseClaim();
+                }
+                return null;
+            }
+            claimed[i] = pipeline;
+        }
+        return new Reservation(claimed);
+    }
+
+    public boolean isOverloaded() {
+        return overloadedTargets.get() > 0;
+    }
+
+    public long getBackpressurePauses() {
+        return backpressurePauses.get();
+    }
+
+    public List<BroadcastPipeline> pipelines() {
+        return List.copyOf(pipelines.values());
+    }
+
+    private BroadcastPipeline pipelineFor(NodeInfo target) {
+        return pipelines.computeIfAbsent(target, t -> new BroadcastPipeline(t, channels, scheduler, config, this));
     }
 
-    private void workerLoop() {
-        while (running) {
-            try {
-                BroadcastTask task = queue.take();
-                processTask(task);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
+    // Ingress stops reading while any member is above its high-water mark
+    void onWatermarkCrossed(boolean aboveHighWater) {
+        if (aboveHighWater) {
+            if (overloadedTargets.getAndIncrement() == 0) {
+                backpressurePauses.incrementAndGet();
+                System.out.println("[BACKPRESSURE] Broadcast queues full, pausing ingress");
             }
+        } else if (overloadedTargets.decrementAndGet() == 0) {
+            System.out.println("[BACKPRESSURE] Broadcast queues drained, resuming ingress");
         }
     }
 
-    private void processTask(BroadcastTask task) {
-        NodeInfo target = task.getTarget();
-        ChatMessage msg = task.getMessage();
-        NodeInfo sender = task.getSender();
-
-        ManagedChannel channel = null;
-        try {
-            channel = ManagedChannelBuilder
-                    .forAddress(target.getHost(), target.getPort())
-                    .usePlaintext()
-                    .build();
-
-            FamilyServiceGrpc.FamilyServiceBlockingStub stub =
-                    FamilyServiceGrpc.newBlockingStub(channel);
-
-            stub.receiveChat(msg);
-
-            System.out.printf("[OK] Broadcasted to %s:%d%n", target.getHost(), target.getPort());
-            ChatLogger.logBroadcast(sender.getHost(), sender.getPort(),
-                    target.getHost(), target.getPort(), msg.getText(), true);
-
-        } catch (Exception e) {
-            System.err.printf("[FAIL] Failed to send to %s:%d (attempt %d/%d): %s%n",
-                    target.getHost(), target.getPort(),
-                    task.getRetryCount() + 1, MAX_RETRIES, e.getMessage());
-
-            if (task.getRetryCount() < MAX_RETRIES) {
-                task.incrementRetry();
-                try {
-                    queue.put(task);
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                }
-            } else {
-                ChatLogger.logBroadcast(sender.getHost(), sender.getPort(),
-                        target.getHost(), target.getPort(), msg.getText(), false);
-            }
-        } finally {
-            if (channel != null) {
-                channel.shutdownNow();
-            }
+    private void removeTarget(NodeInfo target) {
+        BroadcastPipeline pipeline = pipelines.remove(target);
+        if (pipeline != null) {
+            pipeline.close();
         }
     }
 
     public void shutdown() {
         running = false;
-        executor.shutdownNow();
+        pipelines.keySet().forEach(this::removeTarget);
+        scheduler.shutdownNow();
+    }
+
+    // Queue slots held for one message on every peer; used exactly once, by submit or cancel
+    public static final class Reservation {
+        private final BroadcastPipeline[] pipelines;
+
+        private Reservation(BroadcastPipeline[] pipelines) {
+            this.pipelines = pipelines;
+        }
+
+        public void submit(ChatMessage message, NodeInfo sender) {
+            for (BroadcastPipeline pipeline : pipelines) {
+                NodeInfo target = pipeline.getTarget();
+                pipeline.submitClaimed(new BroadcastTask(target, message, sender));
+                System.out.printf("Enqueued message for %s:%d%n", target.getHost(), target.getPort());
+            }
+        }
+
+        public void cancel() {
+            for (BroadcastPipeline pipeline : pipelines) {
+                pipeline.releaseClaim();
+            }
+        }
     }
 }
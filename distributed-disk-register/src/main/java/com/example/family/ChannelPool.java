@@ -0,0 +1,72 @@
+package com.example.family;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import family.NodeInfo;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+
+public class ChannelPool {
+
+    private static final long KEEPALIVE_SECONDS = 30;
+    private static final long IDLE_TIMEOUT_MINUTES = 60;
+
+    private final ConcurrentMap<NodeInfo, ManagedChannel> channels = new ConcurrentHashMap<>();
+    private final ExecutorService callbackExecutor = ExecutionMode.current().newTaskExecutor("grpc-client");
+
+    public ChannelPool(NodeRegistry registry) {
+        // Channels to members that left the family are closed instead of reconnecting forever
+        registry.addViewListener((previous, current) -> {
+            for (NodeInfo node : channels.keySet()) {
+                if (previous.contains(node) && !current.contains(node)) {
+                    evict(node);
+                }
+            }
+        });
+    }
+
+    public ManagedChannel get(NodeInfo node) {
+        ManagedChannel channel = channels.get(node);
+        if (channel != null && !channel.isShutdown()) {
+            return channel;
+        }
+        return channels.compute(node, (key, existing) ->
+                existing == null || existing.isShutdown() ? open(key) : existing);
+    }
+
+    public void evict(NodeInfo node) {
+        ManagedChannel channel = channels.remove(node);
+        if (channel != null) {
+            channel.shutdown();
+            System.out.printf("[POOL] Closed channel to %s:%d%n", node.getHost(), node.getPort());
+        }
+    }
+
+    public int size() {
+        return channels.size();
+    }
+
+    public void shutdown() {
+        channels.keySet().forEach(this::evict);
+        if (callbackExecutor != null) {
+            callbackExecutor.shutdown();
+        }
+    }
+
+    private ManagedChannel open(NodeInfo node) {
+        System.out.printf("[POOL] Opening channel to %s:%d%n", node.getHost(), node.getPort());
+        ManagedChannelBuilder<?> builder = ManagedChannelBuilder
+                .forAddress(node.getHost(), node.getPort())
+                .usePlaintext()
+                .keepAliveTime(KEEPALIVE_SECONDS, TimeUnit.SECONDS)
+                .keepAliveWithoutCalls(true)
+                .idleTimeout(IDLE_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+        if (callbackExecutor != null) {
+            builder.executor(callbackExecutor);
+        }
+        return builder.build();
+    }
+}
@@ -1,13 +1,26 @@
 package com.example.family;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
+// Callers only drop an entry into a lock-free ring; one writer thread formats entries
+// in batches and keeps the log file open, flushing and fsyncing on configurable intervals
 public class ChatLogger {
 
     private static final String LOG_DIR = "logs";
@@ -15,40 +28,322 @@ public class ChatLogger {
     private static final DateTimeFormatter FORMATTER =
             DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
+    private static final int BUFFER_ENTRIES = Integer.parseInt(
+            System.getenv().getOrDefault("CHAT_LOG_BUFFER", "65536"));
+    // 0 writes every batch straight to the file
+    private static final long FLUSH_MILLIS = Long.parseLong(
+            System.getenv().getOrDefault("CHAT_LOG_FLUSH_MS", "100"));
+    // 0 forces to disk after every flush, negative leaves it to the OS
+    private static final long FSYNC_MILLIS = Long.parseLong(
+            System.getenv().getOrDefault("CHAT_LOG_FSYNC_MS", "1000"));
+    private static final long MAX_FILE_BYTES = Long.parseLong(
+            System.getenv().getOrDefault("CHAT_LOG_MAX_BYTES", String.valueOf(64L * 1024 * 1024)));
+    private static final int MAX_FILES = Integer.parseInt(
+            System.getenv().getOrDefault("CHAT_LOG_MAX_FILES", "5"));
+
+    private static final int WRITE_BUFFER_BYTES = 64 * 1024;
+    private static final long FULL_RING_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private static final MpscRingBuffer<Entry> RING = new MpscRingBuffer<>(BUFFER_ENTRIES);
+    private static final LogWriter WRITER = new LogWriter();
+
     static {
         try {
             Files.createDirectories(Paths.get(LOG_DIR));
         } catch (IOException e) {
             System.err.println("Failed to create log directory: " + e.getMessage());
         }
+        WRITER.thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(ChatLogger::shutdown, "chat-logger-shutdown"));
     }
 
-    public static synchronized void logMessage(String fromHost, int fromPort, String text) {
-        String timestamp = LocalDateTime.now().format(FORMATTER);
-        String logEntry = String.format("[%s] FROM=%s:%d TEXT=%s%n",
-                timestamp, fromHost, fromPort, text);
+    public static void logMessage(String fromHost, int fromPort, String text) {
+        append(new Entry(System.currentTimeMillis(), fromHost, fromPort, null, 0, text, false));
+    }
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(LOG_FILE, true))) {
-            writer.write(logEntry);
-            writer.flush();
-        } catch (IOException e) {
-            System.err.println("Failed to write log: " + e.getMessage());
+    public static void logBroadcast(String fromHost, int fromPort,
+                                    String toHost, int toPort,
+                                    String text, boolean success) {
+        append(new Entry(System.currentTimeMillis(), fromHost, fromPort, toHost, toPort, text, success));
+    }
+
+    // For callers that must never wait, such as the TCP event loops: false when the ring is full
+    public static boolean tryLogMessage(String fromHost, int fromPort, String text) {
+        return tryAppend(new Entry(System.currentTimeMillis(), fromHost, fromPort, null, 0, text, false));
+    }
+
+    public static boolean tryLogBroadcast(String fromHost, int fromPort,
+                                          String toHost, int toPort,
+                                          String text, boolean success) {
+        return tryAppend(new Entry(System.currentTimeMillis(), fromHost, fromPort, toHost, toPort, text, success));
+    }
+
+    // Drains everything accepted so far and closes the file; later entries are discarded
+    public static void shutdown() {
+        WRITER.stop();
+    }
+
+    private static void append(Entry entry) {
+        if (WRITER.stopped) {
+            return;
+        }
+        // A full ring means the disk is behind; wait for the writer rather than lose entries
+        while (!RING.offer(entry)) {
+            LockSupport.unpark(WRITER.thread);
+            LockSupport.parkNanos(FULL_RING_PARK_NANOS);
+            if (WRITER.stopped) {
+                return;
+            }
+        }
+        if (WRITER.idle) {
+            LockSupport.unpark(WRITER.thread);
         }
     }
 
-    public static synchronized void logBroadcast(String fromHost, int fromPort,
-                                                  String toHost, int toPort,
-                                                  String text, boolean success) {
-        String timestamp = LocalDateTime.now().format(FORMATTER);
-        String status = success ? "SUCCESS" : "FAILED";
-        String logEntry = String.format("[%s] BROADCAST FROM=%s:%d TO=%s:%d STATUS=%s TEXT=%s%n",
-                timestamp, fromHost, fromPort, toHost, toPort, status, text);
+    private static boolean tryAppend(Entry entry) {
+        if (WRITER.stopped) {
+            return true;
+        }
+        if (!RING.offer(entry)) {
+            LockSupport.unpark(WRITER.thread);
+            return false;
+        }
+        if (WRITER.idle) {
+            LockSupport.unpark(WRITER.thread);
+        }
+        return true;
+    }
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(LOG_FILE, true))) {
-            writer.write(logEntry);
-            writer.flush();
-        } catch (IOException e) {
-            System.err.println("Failed to write log: " + e.getMessage());
+    private static final class Entry {
+        final long timestamp;
+        final String fromHost;
+        final int fromPort;
+        final String toHost; // null for plain messages
+        final int toPort;
+        final String text;
+        final boolean success;
+
+        Entry(long timestamp, String fromHost, int fromPort, String toHost, int toPort,
+              String text, boolean success) {
+            this.timestamp = timestamp;
+            this.fromHost = fromHost;
+            this.fromPort = fromPort;
+            this.toHost = toHost;
+            this.toPort = toPort;
+            this.text = text;
+            this.success = success;
+        }
+    }
+
+    private static final class LogWriter implements Runnable {
+        private final Thread thread = new Thread(this, "chat-logger");
+        private final StringBuilder line = new StringBuilder(256);
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        private final ByteBuffer out = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+        private final ZoneId zone = ZoneId.systemDefault();
+
+        private volatile boolean idle;
+        private volatile boolean stopped;
+        private FileChannel channel;
+        private long fileBytes;
+        private boolean dirty;
+        private boolean unsynced;
+        private long lastFlush;
+        private long lastSync;
+        private long cachedSecond = Long.MIN_VALUE;
+        private String cachedTimestamp;
+
+        LogWriter() {
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            open();
+            while (true) {
+                boolean wrote = drain();
+                long now = System.currentTimeMillis();
+
+                if (dirty && (FLUSH_MILLIS <= 0 || now - lastFlush >= FLUSH_MILLIS)) {
+                    flush(now);
+                }
+                if (unsynced && FSYNC_MILLIS >= 0 && now - lastSync >= FSYNC_MILLIS) {
+                    sync(now);
+                }
+                if (stopped && RING.isEmpty()) {
+                    break;
+                }
+                if (!wrote) {
+                    idle = true;
+                    if (RING.isEmpty() && !stopped) {
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(parkMillis(now)));
+                    }
+                    idle = false;
+                }
+            }
+            flush(System.currentTimeMillis());
+            sync(System.currentTimeMillis());
+            close();
+        }
+
+        void stop() {
+            stopped = true;
+            LockSupport.unpark(thread);
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Wake up in time for the next pending flush or fsync, otherwise only when a caller unparks us
+        private long parkMillis(long now) {
+            long wait = 1000;
+            if (dirty) {
+                wait = Math.min(wait, FLUSH_MILLIS - (now - lastFlush));
+            }
+            if (unsynced && FSYNC_MILLIS >= 0) {
+                wait = Math.min(wait, FSYNC_MILLIS - (now - lastSync));
+            }
+            return Math.max(1, wait);
+        }
+
+        private boolean drain() {
+            boolean wrote = false;
+            Entry entry;
+            while ((entry = RING.poll()) != null) {
+                format(entry);
+                write();
+                wrote = true;
+            }
+            return wrote;
+        }
+
+        private void format(Entry e) {
+            line.setLength(0);
+            line.append('[').append(timestamp(e.timestamp)).append(']');
+            if (e.toHost == null) {
+                line.append(" FROM=").append(e.fromHost).append(':').append(e.fromPort);
+            } else {
+                line.append(" BROADCAST FROM=").append(e.fromHost).append(':').append(e.fromPort)
+                        .append(" TO=").append(e.toHost).append(':').append(e.toPort)
+                        .append(" STATUS=").append(e.success ? "SUCCESS" : "FAILED");
+            }
+            line.append(" TEXT=").append(e.text).append(System.lineSeparator());
+        }
+
+        // Entries within the same second share one formatted timestamp
+        private String timestamp(long millis) {
+            long second = Math.floorDiv(millis, 1000);
+            if (second != cachedSecond) {
+                cachedSecond = second;
+                cachedTimestamp = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), zone).format(FORMATTER);
+            }
+            return cachedTimestamp;
+        }
+
+        private void write() {
+            CharBuffer chars = CharBuffer.wrap(line);
+            encoder.reset();
+            while (true) {
+                CoderResult result = encoder.encode(chars, out, true);
+                if (result.isOverflow()) {
+                    writeOut();
+                    continue;
+                }
+                break;
+            }
+            dirty = true;
+        }
+
+        private void flush(long now) {
+            writeOut();
+            dirty = false;
+            lastFlush = now;
+            if (fileBytes >= MAX_FILE_BYTES) {
+                rotate();
+            }
+        }
+
+        private void writeOut() {
+            out.flip();
+            try {
+                if (channel == null) {
+                    open();
+                }
+                if (channel != null) {
+                    while (out.hasRemaining()) {
+                        fileBytes += channel.write(out);
+                    }
+                    unsynced = true;
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to write log: " + e.getMessage());
+                close();
+            } finally {
+                out.clear();
+            }
+        }
+
+        private void sync(long now) {
+            lastSync = now;
+            if (!unsynced || channel == null) {
+                return;
+            }
+            try {
+                channel.force(false);
+                unsynced = false;
+            } catch (IOException e) {
+                System.err.println("Failed to sync log: " + e.getMessage());
+            }
+        }
+
+        // chat-messages.log -> .1 -> .2 ... and the oldest one past MAX_FILES is deleted
+        private void rotate() {
+            sync(System.currentTimeMillis());
+            close();
+            try {
+                Path current = Paths.get(LOG_FILE);
+                Files.deleteIfExists(Paths.get(LOG_FILE + "." + MAX_FILES));
+                for (int i = MAX_FILES - 1; i >= 1; i--) {
+                    Path older = Paths.get(LOG_FILE + "." + i);
+                    if (Files.exists(older)) {
+                        Files.move(older, Paths.get(LOG_FILE + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+                if (MAX_FILES > 0) {
+                    Files.move(current, Paths.get(LOG_FILE + ".1"), StandardCopyOption.REPLACE_EXISTING);
+                } else {
+                    Files.deleteIfExists(current);
+                }
+                System.out.printf("[LOG] Rotated %s after %d bytes%n", LOG_FILE, fileBytes);
+            } catch (IOException e) {
+                System.err.println("Failed to rotate log: " + e.getMessage());
+            }
+            open();
+        }
+
+        private void open() {
+            try {
+                channel = FileChannel.open(Paths.get(LOG_FILE),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                fileBytes = channel.size();
+            } catch (IOException e) {
+                System.err.println("Failed to open log: " + e.getMessage());
+                channel = null;
+            }
+        }
+
+        private void close() {
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close log: " + e.getMessage());
+            }
+            channel = null;
         }
     }
 }
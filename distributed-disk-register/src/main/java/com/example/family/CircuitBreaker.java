@@ -0,0 +1,96 @@
+package com.example.family;
+
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long baseOpenMillis;
+    private final long maxOpenMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private int consecutiveTrips;
+    private long openUntil;
+    private long generation;
+    private boolean probeInFlight;
+
+    public CircuitBreaker(String name, int failureThreshold, long baseOpenMillis, long maxOpenMillis) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.baseOpenMillis = baseOpenMillis;
+        this.maxOpenMillis = maxOpenMillis;
+    }
+
+    // Returns a permit to report the outcome with, or -1 while the circuit is open
+    public synchronized long tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return generation;
+            case OPEN:
+                if (System.currentTimeMillis() < openUntil) {
+                    return -1;
+                }
+                state = State.HALF_OPEN;
+                System.out.printf("[BREAKER] %s half-open, sending probe%n", name);
+                // The first caller after the cooldown becomes the probe
+                return acquireProbe();
+            case HALF_OPEN:
+            default:
+                return acquireProbe();
+        }
+    }
+
+    private long acquireProbe() {
+        if (probeInFlight) {
+            return -1;
+        }
+        probeInFlight = true;
+        return generation;
+    }
+
+    public synchronized void release() {
+        probeInFlight = false;
+    }
+
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        consecutiveTrips = 0;
+        probeInFlight = false;
+        if (state != State.CLOSED) {
+            state = State.CLOSED;
+            System.out.printf("[BREAKER] %s closed%n", name);
+        }
+    }
+
+    public synchronized void onFailure(long permit) {
+        consecutiveFailures++;
+        if (permit != generation) {
+            // Sent before the last trip; only the probe decides whether to reopen
+            return;
+        }
+        if (state == State.HALF_OPEN ||
+            (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            long cooldown = Backoff.delayMillis(consecutiveTrips++, baseOpenMillis, maxOpenMillis);
+            openUntil = System.currentTimeMillis() + cooldown;
+            state = State.OPEN;
+            generation++;
+            probeInFlight = false;
+            System.out.printf("[BREAKER] %s open for %d ms after %d consecutive failures%n",
+                    name, cooldown, consecutiveFailures);
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public synchronized long remainingOpenMillis() {
+        return state == State.OPEN ? Math.max(0, openUntil - System.currentTimeMillis()) : 0;
+    }
+}
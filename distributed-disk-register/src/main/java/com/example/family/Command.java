@@ -0,0 +1,33 @@
+package com.example.family;
+
+// A client line is either a storage command or, when it is not, chat text for the family
+public interface Command {
+
+    // Returns null for lines that are not commands; throws for a malformed SET/GET
+    static Command parse(String line) {
+        String[] parts = line.trim().split("\\s+", 3);
+        String verb = parts[0].toUpperCase();
+
+        if (verb.equals("SET")) {
+            if (parts.length < 3) {
+                throw new IllegalArgumentException("usage: SET <id> <message>");
+            }
+            return new SetCommand(parseId(parts[1]), parts[2]);
+        }
+        if (verb.equals("GET")) {
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("usage: GET <id>");
+            }
+            return new GetCommand(parseId(parts[1]));
+        }
+        return null;
+    }
+
+    private static int parseId(String id) {
+        try {
+            return Integer.parseInt(id);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("id must be an integer: " + id);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.family;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class ExecutionMode {
+
+    private static final ExecutionMode CURRENT = fromEnvironment();
+
+    private final boolean virtual;
+
+    private ExecutionMode(boolean virtual) {
+        this.virtual = virtual;
+    }
+
+    public static ExecutionMode current() {
+        return CURRENT;
+    }
+
+    // Either mode regardless of EXECUTION_MODE, so the benchmark can run both side by side
+    static ExecutionMode of(boolean virtual) {
+        return new ExecutionMode(virtual);
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    public ThreadFactory threadFactory(String name) {
+        if (virtual) {
+            return virtualThreadFactory(name);
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return r -> new Thread(r, name + "-" + counter.getAndIncrement());
+    }
+
+    public Thread newThread(String name, Runnable task) {
+        return threadFactory(name).newThread(task);
+    }
+
+    // One virtual thread per task, or null on platform threads to keep the library's own default
+    public ExecutorService newTaskExecutor(String name) {
+        if (!virtual) {
+            return null;
+        }
+        try {
+            Method perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) perTask.invoke(null, virtualThreadFactory(name));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads unavailable", e);
+        }
+    }
+
+    public ScheduledExecutorService newScheduler(String name) {
+        return Executors.newSingleThreadScheduledExecutor(threadFactory(name));
+    }
+
+    @Override
+    public String toString() {
+        return virtual ? "virtual" : "platform";
+    }
+
+    private static ExecutionMode fromEnvironment() {
+        String requested = System.getenv().getOrDefault("EXECUTION_MODE", "platform");
+        if (!"virtual".equalsIgnoreCase(requested)) {
+            return new ExecutionMode(false);
+        }
+        if (Runtime.version().feature() < 21) {
+            System.err.println("[CONFIG] EXECUTION_MODE=virtual needs JDK 21+, running on "
+                    + Runtime.version() + " with platform threads");
+            return new ExecutionMode(false);
+        }
+        return new ExecutionMode(true);
+    }
+
+    // Compiled for Java 17, so the JDK 21 Thread.Builder API is reached reflectively
+    private static ThreadFactory virtualThreadFactory(String name) {
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads unavailable", e);
+        }
+    }
+}
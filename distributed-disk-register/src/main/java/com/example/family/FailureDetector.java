@@ -0,0 +1,136 @@
+package com.example.family;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import family.NodeInfo;
+
+// Two views of member health. Readers mark a member that just failed a call so they skip it
+// until it answers again or the suspicion times out. Membership decisions use phi accrual
+// instead: each member's heartbeat inter-arrival times are modelled as a normal distribution
+// and phi = -log10(P(the next heartbeat is still to come)), so a member only counts as dead
+// once its silence is unlikely given how it usually behaves, not after one missed ping.
+public class FailureDetector {
+
+    private static final long SUSPICION_MILLIS = Long.parseLong(
+            System.getenv().getOrDefault("SUSPICION_MS", "30000"));
+    private static final int WINDOW = 100;
+    // Keeps a perfectly regular history from making phi explode after a few ms of jitter
+    private static final double MIN_STD_DEV_MILLIS = Double.parseDouble(
+            System.getenv().getOrDefault("PHI_MIN_STD_DEV_MS", "200"));
+    // Silence we always tolerate on top of the usual interval, e.g. a GC pause on either side
+    private static final double ACCEPTABLE_PAUSE_MILLIS = Double.parseDouble(
+            System.getenv().getOrDefault("PHI_ACCEPTABLE_PAUSE_MS", "3000"));
+
+    private final ConcurrentMap<NodeInfo, Long> failedAt = new ConcurrentHashMap<>();
+    private final ConcurrentMap<NodeInfo, ArrivalWindow> arrivals = new ConcurrentHashMap<>();
+    private final long expectedIntervalMillis;
+
+    public FailureDetector(NodeRegistry registry, long expectedIntervalMillis) {
+        this.expectedIntervalMillis = expectedIntervalMillis;
+        registry.addRemovalListener(member -> {
+            arrivals.remove(member);
+            recordFailure(member);
+        });
+    }
+
+    public void recordSuccess(NodeInfo member) {
+        failedAt.remove(member);
+    }
+
+    public void recordFailure(NodeInfo member) {
+        failedAt.put(member, System.currentTimeMillis());
+    }
+
+    public boolean isSuspected(NodeInfo member) {
+        Long since = failedAt.get(member);
+        if (since == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() - since > SUSPICION_MILLIS) {
+            failedAt.remove(member, since);
+            return false;
+        }
+        return true;
+    }
+
+    // Only regular heartbeats go into the history; ad-hoc replies would skew the intervals
+    public void heartbeat(NodeInfo member) {
+        window(member).arrived(System.currentTimeMillis());
+        recordSuccess(member);
+    }
+
+    // A member seen for the first time starts out as if it had just answered
+    public void watch(NodeInfo member) {
+        window(member);
+    }
+
+    public double phi(NodeInfo member) {
+        ArrivalWindow window = arrivals.get(member);
+        return window == null ? 0.0 : window.phi(System.currentTimeMillis());
+    }
+
+    // Restarts every history, e.g. after this node itself stalled and heard nothing from anyone
+    public void resetAll() {
+        long now = System.currentTimeMillis();
+        arrivals.values().forEach(window -> window.restart(now));
+    }
+
+    private ArrivalWindow window(NodeInfo member) {
+        return arrivals.computeIfAbsent(member,
+                m -> new ArrivalWindow(expectedIntervalMillis, System.currentTimeMillis()));
+    }
+
+    // Running sum and sum of squares over the last WINDOW intervals
+    private static final class ArrivalWindow {
+        private final long[] intervals = new long[WINDOW];
+        private int count;
+        private int next;
+        private double sum;
+        private double squares;
+        private long last;
+
+        ArrivalWindow(long expectedInterval, long now) {
+            // Seeded with the expected interval, give or take a quarter, until real samples arrive
+            add(expectedInterval - expectedInterval / 4);
+            add(expectedInterval + expectedInterval / 4);
+            last = now;
+        }
+
+        synchronized void arrived(long now) {
+            add(now - last);
+            last = now;
+        }
+
+        synchronized void restart(long now) {
+            last = now;
+        }
+
+        synchronized double phi(long now) {
+            double mean = sum / count + ACCEPTABLE_PAUSE_MILLIS;
+            double variance = squares / count - (sum / count) * (sum / count);
+            double stdDev = Math.max(MIN_STD_DEV_MILLIS, Math.sqrt(Math.max(0, variance)));
+            // Logistic approximation of the normal CDF, accurate to about 1e-4
+            double y = (now - last - mean) / stdDev;
+            double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+            if (now - last > mean) {
+                return -Math.log10(e / (1.0 + e));
+            }
+            return -Math.log10(1.0 - 1.0 / (1.0 + e));
+        }
+
+        private void add(long interval) {
+            if (count == WINDOW) {
+                long dropped = intervals[next];
+                sum -= dropped;
+                squares -= (double) dropped * dropped;
+            } else {
+                count++;
+            }
+            intervals[next] = interval;
+            next = (next + 1) % WINDOW;
+            sum += interval;
+            squares += (double) interval * interval;
+        }
+    }
+}
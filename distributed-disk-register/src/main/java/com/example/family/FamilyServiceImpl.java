@@ -1,5 +1,7 @@
 package com.example.family;
 
+import family.BatchAck;
+import family.ChatBatch;
 import family.ChatMessage;
 import family.CoordinatorMessage;
 import family.ElectionMessage;
@@ -15,10 +17,12 @@ public class FamilyServiceImpl extends FamilyServiceGrpc.FamilyServiceImplBase {
     private final NodeInfo self;
     private LeaderElection leaderElection;
     private final ChatStreamManager streamManager;
+    private final MultiLeaderStore chatStore;
 
-    public FamilyServiceImpl(NodeRegistry registry, NodeInfo self) {
+    public FamilyServiceImpl(NodeRegistry registry, NodeInfo self, MultiLeaderStore chatStore) {
         this.registry = registry;
         this.self = self;
+        this.chatStore = chatStore;
         this.registry.add(self);
         this.streamManager = new ChatStreamManager();
     }
@@ -39,6 +43,12 @@ public class FamilyServiceImpl extends FamilyServiceGrpc.FamilyServiceImplBase {
         responseObserver.onCompleted();
     }
 
+    @Override
+    public void heartbeat(Empty request, StreamObserver<Empty> responseObserver) {
+        responseObserver.onNext(Empty.getDefaultInstance());
+        responseObserver.onCompleted();
+    }
+
     @Override
     public void getFamily(Empty request, StreamObserver<FamilyView> responseObserver) {
         FamilyView view = FamilyView.newBuilder()
@@ -51,40 +61,83 @@ public class FamilyServiceImpl extends FamilyServiceGrpc.FamilyServiceImplBase {
 
     @Override
     public void receiveChat(ChatMessage request, StreamObserver<Empty> responseObserver) {
+        printIncoming(request);
+        chatStore.storeRemote(VersionedMessage.fromProto(request));
+
+        responseObserver.onNext(Empty.newBuilder().build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void receiveChatBatch(ChatBatch request, StreamObserver<Empty> responseObserver) {
+        for (ChatMessage message : request.getMessagesList()) {
+            printIncoming(message);
+            chatStore.storeRemote(VersionedMessage.fromProto(message));
+        }
+
+        // One ack covers the whole batch
+        responseObserver.onNext(Empty.newBuilder().build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public StreamObserver<ChatBatch> replicationStream(StreamObserver<BatchAck> responseObserver) {
+        return new StreamObserver<ChatBatch>() {
+            @Override
+            public void onNext(ChatBatch batch) {
+                // A timed-out batch is resent under a new sequence, possibly regrouped, so
+                // copies that already arrived are recognised by message id and skipped
+                for (ChatMessage message : batch.getMessagesList()) {
+                    if (chatStore.storeRemote(VersionedMessage.fromProto(message))) {
+                        printIncoming(message);
+                    }
+                }
+                responseObserver.onNext(BatchAck.newBuilder()
+                        .setSequence(batch.getSequence())
+                        .build());
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                System.err.println("[STREAM] Replication stream error: " + t.getMessage());
+            }
+
+            @Override
+            public void onCompleted() {
+                responseObserver.onCompleted();
+            }
+        };
+    }
+
+    private void printIncoming(ChatMessage request) {
         System.out.println("[MSG] Incoming message:");
         System.out.println("  From: " + request.getFromHost() + ":" + request.getFromPort());
         System.out.println("  Text: " + request.getText());
         System.out.println("  Timestamp: " + request.getTimestamp());
         System.out.println("--------------------------------------");
-
-        responseObserver.onNext(Empty.newBuilder().build());
-        responseObserver.onCompleted();
     }
 
     @Override
     public void election(ElectionMessage request, StreamObserver<Empty> responseObserver) {
-        System.out.printf("[ELECTION] Received election message from %s:%d%n",
-                request.getCandidateHost(), request.getCandidatePort());
-
-        if (leaderElection != null) {
-            leaderElection.startElection();
-        }
+        System.out.printf("[ELECTION] Received election message from %s:%d (term %d)%n",
+                request.getCandidateHost(), request.getCandidatePort(), request.getTerm());
 
+        // OK goes back first; our own round runs on the election thread
         responseObserver.onNext(Empty.newBuilder().build());
         responseObserver.onCompleted();
+
+        if (leaderElection != null) {
+            leaderElection.onElection(request);
+        }
     }
 
     @Override
     public void coordinator(CoordinatorMessage request, StreamObserver<Empty> responseObserver) {
-        System.out.printf("[LEADER] Received coordinator message: Leader is %s:%d%n",
-                request.getLeaderHost(), request.getLeaderPort());
+        System.out.printf("[LEADER] Received coordinator message: Leader is %s:%d (term %d)%n",
+                request.getLeaderHost(), request.getLeaderPort(), request.getTerm());
 
         if (leaderElection != null) {
-            NodeInfo newLeader = NodeInfo.newBuilder()
-                    .setHost(request.getLeaderHost())
-                    .setPort(request.getLeaderPort())
-                    .build();
-            leaderElection.setLeader(newLeader);
+            leaderElection.onCoordinator(request);
         }
 
         responseObserver.onNext(Empty.newBuilder().build());
@@ -0,0 +1,14 @@
+package com.example.family;
+
+public class GetCommand implements Command {
+
+    private final int id;
+
+    public GetCommand(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.family;
+
+import family.GossipAck;
+import family.GossipPing;
+import family.GossipServiceGrpc;
+import family.IndirectPing;
+import io.grpc.stub.StreamObserver;
+
+public class GossipServiceImpl extends GossipServiceGrpc.GossipServiceImplBase {
+
+    private final SwimRegistry registry;
+
+    public GossipServiceImpl(SwimRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void ping(GossipPing request, StreamObserver<GossipAck> responseObserver) {
+        responseObserver.onNext(registry.onPing(request));
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void pingRequest(IndirectPing request, StreamObserver<GossipAck> responseObserver) {
+        registry.onPingRequest(request, responseObserver);
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.family;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import family.NodeInfo;
+
+// Immutable consistent-hash ring. Every member owns many virtual points, so the ids a
+// member leaves behind spread over all others and a join takes only about 1/N of the ids.
+public class HashRing {
+
+    public static final int DEFAULT_VIRTUAL_NODES = Integer.parseInt(
+            System.getenv().getOrDefault("HASH_RING_VNODES", "256"));
+
+    private final Set<NodeInfo> members;
+    private final long[] points;
+    private final NodeInfo[] owners;
+
+    public HashRing(Collection<NodeInfo> members, int virtualNodes) {
+        this.members = Set.copyOf(members);
+
+        long[] hashes = new long[this.members.size() * virtualNodes];
+        NodeInfo[] byHash = new NodeInfo[hashes.length];
+        int i = 0;
+        for (NodeInfo member : this.members) {
+            for (int v = 0; v < virtualNodes; v++) {
+                hashes[i] = hash(member.getHost() + ":" + member.getPort() + "#" + v);
+                byHash[i] = member;
+                i++;
+            }
+        }
+
+        // Sort the points and carry their owners along
+        Integer[] order = new Integer[hashes.length];
+        for (int k = 0; k < order.length; k++) {
+            order[k] = k;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+        this.points = new long[hashes.length];
+        this.owners = new NodeInfo[hashes.length];
+        for (int k = 0; k < order.length; k++) {
+            points[k] = hashes[order[k]];
+            owners[k] = byHash[order[k]];
+        }
+    }
+
+    public Set<NodeInfo> getMembers() {
+        return members;
+    }
+
+    // The first `count` distinct members clockwise from the id's position
+    public List<NodeInfo> replicasFor(int id, int count) {
+        int wanted = Math.min(count, members.size());
+        List<NodeInfo> replicas = new ArrayList<>(wanted);
+        if (wanted == 0) {
+            return replicas;
+        }
+
+        int start = Arrays.binarySearch(points, mix(id));
+        if (start < 0) {
+            start = -start - 1;
+        }
+        for (int k = 0; k < points.length && replicas.size() < wanted; k++) {
+            NodeInfo owner = owners[(start + k) % points.length];
+            if (!replicas.contains(owner)) {
+                replicas.add(owner);
+            }
+        }
+        return replicas;
+    }
+
+    // How many of ids 1..setCount each member would hold with `count` replicas per id
+    public Map<NodeInfo, Integer> distribution(int setCount, int count) {
+        Map<NodeInfo, Integer> load = new LinkedHashMap<>();
+        for (NodeInfo member : members) {
+            load.put(member, 0);
+        }
+        for (int id = 1; id <= setCount; id++) {
+            for (NodeInfo replica : replicasFor(id, count)) {
+                load.merge(replica, 1, Integer::sum);
+            }
+        }
+        return load;
+    }
+
+    public String distributionReport(int count, int... setCounts) {
+        StringBuilder report = new StringBuilder();
+        for (int setCount : setCounts) {
+            report.append(String.format("[RING] %d SETs x %d replicas:", setCount, count));
+            for (Map.Entry<NodeInfo, Integer> e : distribution(setCount, count).entrySet()) {
+                report.append(String.format(" %s:%d=%d", e.getKey().getHost(), e.getKey().getPort(), e.getValue()));
+            }
+            report.append(System.lineSeparator());
+        }
+        return report.toString();
+    }
+
+    // FNV-1a over the bytes, finished with the same mixer used for ids
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
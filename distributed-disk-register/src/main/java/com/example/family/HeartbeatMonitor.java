@@ -0,0 +1,134 @@
+package com.example.family;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import family.Empty;
+import family.FamilyServiceGrpc;
+import family.NodeInfo;
+import io.grpc.stub.StreamObserver;
+
+// Pings every peer at once on a fixed interval, each call under its own deadline, so one hung
+// member neither delays the others nor stretches the sweep as the family grows. A member is
+// removed only when its phi passes the threshold, never for a single missed heartbeat.
+public class HeartbeatMonitor {
+
+    private static final long INTERVAL_MILLIS = Long.parseLong(
+            System.getenv().getOrDefault("HEARTBEAT_INTERVAL_MS", "1000"));
+    private static final long TIMEOUT_MILLIS = Long.parseLong(
+            System.getenv().getOrDefault("HEARTBEAT_TIMEOUT_MS", "500"));
+    private static final double PHI_THRESHOLD = Double.parseDouble(
+            System.getenv().getOrDefault("PHI_THRESHOLD", "8"));
+    private static final long ELECTION_RETRY_MILLIS = 10_000;
+
+    private final NodeRegistry registry;
+    private final ChannelPool channels;
+    private final FailureDetector detector;
+    private final LeaderElection election;
+    // With gossip membership the registry finds failed members itself; only the leader is watched here
+    private final boolean pingPeers;
+    private final ScheduledExecutorService scheduler = ExecutionMode.current().newScheduler("heartbeat");
+    private final Set<NodeInfo> pending = ConcurrentHashMap.newKeySet();
+    private long lastTick;
+    private long lastElection;
+
+    public HeartbeatMonitor(NodeRegistry registry, ChannelPool channels, FailureDetector detector,
+                            LeaderElection election, boolean pingPeers) {
+        this.registry = registry;
+        this.pingPeers = pingPeers;
+        this.channels = channels;
+        this.detector = detector;
+        this.election = election;
+    }
+
+    public static long getIntervalMillis() {
+        return INTERVAL_MILLIS;
+    }
+
+    public void start() {
+        if (pingPeers) {
+            System.out.printf("[CONFIG] Heartbeat interval=%dms timeout=%dms phiThreshold=%.1f%n",
+                    INTERVAL_MILLIS, TIMEOUT_MILLIS, PHI_THRESHOLD);
+        }
+        scheduler.scheduleWithFixedDelay(this::tick, INTERVAL_MILLIS, INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void tick() {
+        try {
+            long now = System.currentTimeMillis();
+            // If this node was the one frozen, every peer looks silent; judge nobody this round
+            long late = lastTick > 0 ? now - lastTick - INTERVAL_MILLIS : 0;
+            boolean stalled = late > INTERVAL_MILLIS * 2;
+            lastTick = now;
+            if (stalled && pingPeers) {
+                System.out.printf("[HEALTH] Heartbeat ran %d ms late, restarting arrival histories%n", late);
+                detector.resetAll();
+            }
+
+            MembershipView view = registry.view();
+            for (int i = 0; i < view.peerCount() && pingPeers; i++) {
+                NodeInfo peer = view.peer(i);
+                detector.watch(peer);
+                ping(peer);
+            }
+
+            for (int i = 0; i < view.peerCount() && pingPeers && !stalled; i++) {
+                NodeInfo peer = view.peer(i);
+                double phi = detector.phi(peer);
+                if (phi > PHI_THRESHOLD) {
+                    System.out.printf("[HEALTH] %s:%d phi=%.1f, removing from family%n",
+                            peer.getHost(), peer.getPort(), phi);
+                    registry.remove(peer);
+                }
+            }
+
+            checkLeader(now);
+        } catch (Exception e) {
+            System.err.println("[HEALTH] Heartbeat round failed: " + e.getMessage());
+        }
+    }
+
+    // A member that has not answered the last ping yet gets no second one in parallel
+    private void ping(NodeInfo peer) {
+        if (!pending.add(peer)) {
+            return;
+        }
+        FamilyServiceGrpc.newStub(channels.get(peer))
+                .withDeadlineAfter(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .heartbeat(Empty.getDefaultInstance(), new StreamObserver<Empty>() {
+                    @Override
+                    public void onNext(Empty value) {
+                        detector.heartbeat(peer);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        pending.remove(peer);
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        pending.remove(peer);
+                    }
+                });
+    }
+
+    private void checkLeader(long now) {
+        NodeInfo leader = election.getLeader();
+        if (leader == null || election.isLeader() || registry.view().contains(leader)) {
+            return;
+        }
+        if (now - lastElection < ELECTION_RETRY_MILLIS) {
+            return;
+        }
+        lastElection = now;
+        System.out.println("Leader is dead, starting election...");
+        election.startElection();
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.family;
+
+import java.util.Arrays;
+
+// Sliding window of recent call latencies; the percentile is recomputed every few samples
+// so readers only pay for a volatile read
+public class LatencyTracker {
+
+    private static final int WINDOW = 1024;
+    private static final int RECOMPUTE_EVERY = 64;
+
+    private final long[] samples = new long[WINDOW];
+    private final double percentile;
+    private final long fallbackMillis;
+    private int count;
+    private volatile long cachedMillis;
+
+    public LatencyTracker(double percentile, long fallbackMillis) {
+        this.percentile = percentile;
+        this.fallbackMillis = fallbackMillis;
+        this.cachedMillis = fallbackMillis;
+    }
+
+    public synchronized void record(long millis) {
+        samples[count % WINDOW] = millis;
+        count++;
+        if (count % RECOMPUTE_EVERY == 0) {
+            int filled = Math.min(count, WINDOW);
+            long[] sorted = Arrays.copyOf(samples, filled);
+            Arrays.sort(sorted);
+            cachedMillis = sorted[Math.min(filled - 1, (int) Math.ceil(percentile * filled) - 1)];
+        }
+    }
+
+    // Until enough samples arrive this is the fallback
+    public long getMillis() {
+        return cachedMillis;
+    }
+
+    public long getFallbackMillis() {
+        return fallbackMillis;
+    }
+}
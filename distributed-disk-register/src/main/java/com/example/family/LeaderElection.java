@@ -1,30 +1,50 @@
 package com.example.family;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import family.CoordinatorMessage;
 import family.ElectionMessage;
+import family.Empty;
 import family.FamilyServiceGrpc;
 import family.NodeInfo;
-import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
+import io.grpc.stub.StreamObserver;
 
 public class LeaderElection {
 
+    private static final long ELECTION_TIMEOUT_MILLIS = Long.parseLong(
+            System.getenv().getOrDefault("ELECTION_TIMEOUT_MS", "500"));
+    private static final long COORDINATOR_WAIT_MILLIS = ELECTION_TIMEOUT_MILLIS * 4;
+
     private final NodeInfo self;
     private final NodeRegistry registry;
     private final AtomicReference<NodeInfo> currentLeader;
     private final TcpListener tcpListener;
+    private final ChannelPool channels;
+    private final ScheduledExecutorService scheduler = ExecutionMode.current().newScheduler("election");
+    // Highest term seen anywhere; a new round always starts above it
+    private final AtomicLong term = new AtomicLong();
+    // Set while a round runs, including while it waits for the coordinator of a member that answered
+    private final AtomicBoolean electing = new AtomicBoolean();
+    private volatile long leaderTerm;
+    private volatile long acceptedAt = System.nanoTime();
 
-    public LeaderElection(NodeInfo self, NodeRegistry registry, TcpListener tcpListener) {
+    public LeaderElection(NodeInfo self, NodeRegistry registry, TcpListener tcpListener,
+                          ChannelPool channels) {
         this.self = self;
         this.registry = registry;
         this.currentLeader = new AtomicReference<>(null);
         this.tcpListener = tcpListener;
+        this.channels = channels;
     }
 
-    public void setLeader(NodeInfo leader) {
+    public synchronized void setLeader(NodeInfo leader) {
         NodeInfo oldLeader = currentLeader.get();
         
         if (oldLeader != null && 
@@ -59,102 +79,199 @@ public class LeaderElection {
                leader.getPort() == self.getPort();
     }
 
+    // Bully election. The round is numbered with a fresh term; every member above this one is
+    // asked at once under a deadline, and if none answers this node wins. A member that answers
+    // OK owes us a coordinator message; if it does not arrive in time the round starts over.
     public void startElection() {
-        System.out.println("[ELECTION] Starting leader election...");
-
-        List<NodeInfo> members = registry.snapshot();
-        boolean foundHigher = false;
+        if (!electing.compareAndSet(false, true)) {
+            return;
+        }
+        scheduler.execute(this::runElection);
+    }
 
-        for (NodeInfo node : members) {
-            if (node.getPort() > self.getPort()) {
-                if (sendElectionMessage(node)) {
-                    foundHigher = true;
-                }
-            }
+    // Answered before any of this runs, so the candidate never waits on our own round
+    public void onElection(ElectionMessage request) {
+        observe(request.getTerm());
+        if (isLeader()) {
+            // The candidate missed our announcement; tell it directly rather than letting it
+            // time out and retry until its term passes ours
+            NodeInfo candidate = NodeInfo.newBuilder()
+                    .setHost(request.getCandidateHost())
+                    .setPort(request.getCandidatePort())
+                    .build();
+            scheduler.execute(() -> reassert(candidate));
+        } else {
+            // Whatever its term: a round of ours that is already under way ends in a coordinator
+            // announcement the candidate receives too, so only a missing round is started
+            startElection();
         }
+    }
+
+    public void onCoordinator(CoordinatorMessage request) {
+        NodeInfo leader = NodeInfo.newBuilder()
+                .setHost(request.getLeaderHost())
+                .setPort(request.getLeaderPort())
+                .build();
+        observe(request.getTerm());
 
-        if (!foundHigher) {
-            becomeLeader();
+        if (leader.getPort() < self.getPort()) {
+            System.out.printf("[ELECTION] %s:%d claimed term %d but this node outranks it%n",
+                    leader.getHost(), leader.getPort(), request.getTerm());
+            startElection();
+            return;
         }
+        NodeInfo current = currentLeader.get();
+        if (request.getTerm() < leaderTerm && current != null && leader.getPort() <= current.getPort()) {
+            System.out.printf("[ELECTION] Ignoring coordinator %s:%d from stale term %d (current %d)%n",
+                    leader.getHost(), leader.getPort(), request.getTerm(), leaderTerm);
+            return;
+        }
+        leaderTerm = request.getTerm();
+        acceptedAt = System.nanoTime();
+        electing.set(false);
+        setLeader(leader);
     }
 
-    private boolean sendElectionMessage(NodeInfo target) {
-        ManagedChannel channel = null;
-        try {
-            channel = ManagedChannelBuilder
-                    .forAddress(target.getHost(), target.getPort())
-                    .usePlaintext()
-                    .build();
+    public long getTerm() {
+        return leaderTerm;
+    }
 
-            FamilyServiceGrpc.FamilyServiceBlockingStub stub =
-                    FamilyServiceGrpc.newBlockingStub(channel);
+    private void runElection() {
+        try {
+            electRound();
+        } catch (RuntimeException e) {
+            // Otherwise electing stays set and no election could ever start again
+            System.err.println("[ELECTION] Round failed: " + e.getMessage());
+            electing.set(false);
+        }
+    }
 
-            ElectionMessage msg = ElectionMessage.newBuilder()
-                    .setCandidatePort(self.getPort())
-                    .setCandidateHost(self.getHost())
-                    .build();
+    private void electRound() {
+        long round = term.incrementAndGet();
+        long started = System.nanoTime();
+        System.out.printf("[ELECTION] Starting leader election for term %d...%n", round);
 
-            stub.election(msg);
-            System.out.printf("-> Sent election message to %s:%d%n",
-                    target.getHost(), target.getPort());
-            return true;
-
-        } catch (Exception e) {
-            System.err.printf("[FAIL] Failed to contact %s:%d for election%n",
-                    target.getHost(), target.getPort());
-            return false;
-        } finally {
-            if (channel != null) {
-                channel.shutdownNow();
+        List<NodeInfo> higher = new ArrayList<>();
+        for (NodeInfo node : registry.view().getPeers()) {
+            if (node.getPort() > self.getPort()) {
+                higher.add(node);
             }
         }
+        if (higher.isEmpty()) {
+            becomeLeader(round);
+            return;
+        }
+
+        ElectionMessage msg = ElectionMessage.newBuilder()
+                .setCandidatePort(self.getPort())
+                .setCandidateHost(self.getHost())
+                .setTerm(round)
+                .build();
+        AtomicBoolean answered = new AtomicBoolean();
+        AtomicInteger failed = new AtomicInteger();
+        for (NodeInfo target : higher) {
+            FamilyServiceGrpc.newStub(channels.get(target))
+                    .withDeadlineAfter(ELECTION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                    .election(msg, new StreamObserver<Empty>() {
+                        @Override
+                        public void onNext(Empty value) {
+                            if (answered.compareAndSet(false, true)) {
+                                System.out.printf("-> %s:%d answered term %d, waiting for its coordinator%n",
+                                        target.getHost(), target.getPort(), round);
+                                scheduler.schedule(() -> checkCoordinator(round, started),
+                                        COORDINATOR_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                            }
+                        }
+
+                        @Override
+                        public void onError(Throwable t) {
+                            System.err.printf("[FAIL] Failed to contact %s:%d for election%n",
+                                    target.getHost(), target.getPort());
+                            if (failed.incrementAndGet() == higher.size() && !answered.get()) {
+                                scheduler.execute(() -> becomeLeader(round));
+                            }
+                        }
+
+                        @Override
+                        public void onCompleted() {
+                        }
+                    });
+        }
+    }
+
+    private void checkCoordinator(long round, long started) {
+        if (acceptedAt - started < 0) {
+            System.out.printf("[ELECTION] No coordinator after term %d, starting over%n", round);
+            electing.set(false);
+            startElection();
+        }
     }
 
     public void becomeLeader() {
-        System.out.println("[LEADER] I am the new leader!");
+        electing.set(true);
+        becomeLeader(term.incrementAndGet());
+    }
+
+    private void becomeLeader(long round) {
+        System.out.printf("[LEADER] I am the new leader! (term %d)%n", round);
+        leaderTerm = round;
+        acceptedAt = System.nanoTime();
         setLeader(self);
-        announceCoordinator();
+        electing.set(false);
+        announceCoordinator(round);
     }
 
-    private void announceCoordinator() {
-        List<NodeInfo> members = registry.snapshot();
+    private void announceCoordinator(long round) {
+        CoordinatorMessage msg = coordinatorMessage(round);
+        for (NodeInfo target : registry.view().getPeers()) {
+            sendCoordinator(target, msg);
+        }
+    }
 
-        for (NodeInfo node : members) {
-            if (node.getHost().equals(self.getHost()) && node.getPort() == self.getPort()) {
-                continue;
-            }
-            sendCoordinatorMessage(node);
+    // Under a fresh term, which is above the candidate's round since we observed it
+    private void reassert(NodeInfo candidate) {
+        if (!isLeader()) {
+            return;
         }
+        long round = term.incrementAndGet();
+        leaderTerm = round;
+        System.out.printf("[ELECTION] Already leader, reasserting to %s:%d with term %d%n",
+                candidate.getHost(), candidate.getPort(), round);
+        sendCoordinator(candidate, coordinatorMessage(round));
     }
 
-    private void sendCoordinatorMessage(NodeInfo target) {
-        ManagedChannel channel = null;
-        try {
-            channel = ManagedChannelBuilder
-                    .forAddress(target.getHost(), target.getPort())
-                    .usePlaintext()
-                    .build();
+    private CoordinatorMessage coordinatorMessage(long round) {
+        return CoordinatorMessage.newBuilder()
+                .setLeaderPort(self.getPort())
+                .setLeaderHost(self.getHost())
+                .setTerm(round)
+                .build();
+    }
 
-            FamilyServiceGrpc.FamilyServiceBlockingStub stub =
-                    FamilyServiceGrpc.newBlockingStub(channel);
+    private void sendCoordinator(NodeInfo target, CoordinatorMessage msg) {
+        FamilyServiceGrpc.newStub(channels.get(target))
+                .withDeadlineAfter(ELECTION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .coordinator(msg, new StreamObserver<Empty>() {
+                    @Override
+                    public void onNext(Empty value) {
+                        System.out.printf("-> Announced leadership to %s:%d%n",
+                                target.getHost(), target.getPort());
+                    }
 
-            CoordinatorMessage msg = CoordinatorMessage.newBuilder()
-                    .setLeaderPort(self.getPort())
-                    .setLeaderHost(self.getHost())
-                    .build();
+                    @Override
+                    public void onError(Throwable t) {
+                        System.err.printf("[FAIL] Failed to announce to %s:%d%n",
+                                target.getHost(), target.getPort());
+                    }
 
-            stub.coordinator(msg);
-            System.out.printf("-> Announced leadership to %s:%d%n",
-                    target.getHost(), target.getPort());
+                    @Override
+                    public void onCompleted() {
+                    }
+                });
+    }
 
-        } catch (Exception e) {
-            System.err.printf("[FAIL] Failed to announce to %s:%d%n",
-                    target.getHost(), target.getPort());
-        } finally {
-            if (channel != null) {
-                channel.shutdownNow();
-            }
-        }
+    private void observe(long seen) {
+        term.accumulateAndGet(seen, Math::max);
     }
 
     public NodeInfo findInitialLeader() {
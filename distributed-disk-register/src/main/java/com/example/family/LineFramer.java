@@ -0,0 +1,65 @@
+package com.example.family;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+public class LineFramer {
+
+    public static final int MAX_LINE_BYTES = 1024 * 1024;
+
+    private final int maxLineBytes;
+    private byte[] partial = new byte[256];
+    private int partialLength;
+
+    public LineFramer(int maxLineBytes) {
+        this.maxLineBytes = maxLineBytes;
+    }
+
+    // Emits every complete line in the buffer and keeps the unterminated tail for the next read.
+    // Returns false if a single line grows past the limit.
+    public boolean feed(ByteBuffer buffer, Consumer<String> sink) {
+        int start = buffer.position();
+        int limit = buffer.limit();
+
+        for (int i = start; i < limit; i++) {
+            if (buffer.get(i) == '\n') {
+                if (partialLength + (i - start) > maxLineBytes) {
+                    return false;
+                }
+                append(buffer, start, i - start);
+                sink.accept(new String(partial, 0, partialLength, StandardCharsets.UTF_8));
+                partialLength = 0;
+                start = i + 1;
+            }
+        }
+
+        int remaining = limit - start;
+        if (partialLength + remaining > maxLineBytes) {
+            return false;
+        }
+        append(buffer, start, remaining);
+        buffer.position(limit);
+        return true;
+    }
+
+    // A final line without a trailing newline still counts, like BufferedReader.readLine
+    public void finish(Consumer<String> sink) {
+        if (partialLength > 0) {
+            sink.accept(new String(partial, 0, partialLength, StandardCharsets.UTF_8));
+            partialLength = 0;
+        }
+    }
+
+    private void append(ByteBuffer buffer, int index, int length) {
+        if (length == 0) {
+            return;
+        }
+        if (partialLength + length > partial.length) {
+            partial = Arrays.copyOf(partial, Math.max(partial.length * 2, partialLength + length));
+        }
+        buffer.get(index, partial, partialLength, length);
+        partialLength += length;
+    }
+}
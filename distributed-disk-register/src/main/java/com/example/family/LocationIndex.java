@@ -0,0 +1,360 @@
+package com.example.family;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+import family.NodeInfo;
+
+// Leader-side message id -> replica set, stored off-heap so tens of millions of ids cost
+// 16 bytes each and nothing for the GC to trace. Each replica set is a 64-bit bitmap over
+// member slots; a member keeps its slot until it leaves the family, when its bits are cleared
+// and the slot is handed to the next newcomer. With more than 64 members at once the extra
+// ones are simply not indexed, and reads for their ids fall back to ring placement.
+//
+// The ids are spread over shards, each an open-addressed table behind its own lock, so a
+// departure clears one shard at a time instead of stalling every SET and GET for a full scan.
+// A shard stops growing at MAX_SHARD_CAPACITY entries (256 MiB, so byte offsets stay ints);
+// ids that no longer fit are not indexed and are read from their ring placement instead.
+public class LocationIndex {
+
+    public static final int MAX_MEMBERS = Long.SIZE;
+
+    private static final int SHARD_BITS = 6;
+    private static final int SHARDS = 1 << SHARD_BITS;
+    static final int MAX_SHARD_CAPACITY = 1 << 24;
+
+    // id, write generation (0 marks a free entry), member bitmap
+    private static final int ENTRY_BYTES = 16;
+    private static final int GENERATION_OFFSET = 4;
+    private static final int BITS_OFFSET = 8;
+
+    private final Map<NodeInfo, Integer> slots = new ConcurrentHashMap<>();
+    private final NodeInfo[] members = new NodeInfo[MAX_MEMBERS];
+    // Bit i set while slot i belongs to a member; guarded by slotLock
+    private long usedSlots;
+    private boolean fullReported;
+    private final Object slotLock = new Object();
+    private final Shard[] shards = new Shard[SHARDS];
+
+    public LocationIndex(int expectedIds) {
+        int perShard = Math.max(8, expectedIds / SHARDS);
+        int capacity = Math.min(MAX_SHARD_CAPACITY, Integer.highestOneBit(perShard * 2 - 1) << 1);
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard(capacity);
+        }
+    }
+
+    // Starts a new write of the id: forgets the replicas of earlier writes and returns the
+    // generation that this write's acks must present to count, or 0 when the id's shard is
+    // full and the write goes unindexed
+    public int begin(int id) {
+        return shardOf(id).begin(id);
+    }
+
+    // A late ack from an earlier write of the id carries an older generation and is ignored
+    public void add(int id, NodeInfo member, int generation) {
+        if (generation != 0) {
+            shardOf(id).add(id, member, generation);
+        }
+    }
+
+    // Drops a departed member from every replica set and frees its slot. The slot is only
+    // freed once every shard has dropped its bit, so no newcomer can inherit a stale copy
+    public void remove(NodeInfo member) {
+        Integer slot;
+        synchronized (slotLock) {
+            slot = slots.remove(member);
+        }
+        if (slot == null) {
+            return;
+        }
+        long keep = ~(1L << slot);
+        for (Shard shard : shards) {
+            shard.clear(keep);
+        }
+        synchronized (slotLock) {
+            members[slot] = null;
+            usedSlots &= keep;
+            fullReported = false;
+        }
+    }
+
+    public List<NodeInfo> get(int id) {
+        return shardOf(id).get(id);
+    }
+
+    public long bits(int id) {
+        return shardOf(id).bits(id);
+    }
+
+    // Every id with a copy on the member, e.g. to re-replicate after it crashed
+    public int[] idsOn(NodeInfo member) {
+        Integer slot = slots.get(member);
+        if (slot == null) {
+            return new int[0];
+        }
+        long bit = 1L << slot;
+        int[] ids = new int[64];
+        int count = 0;
+        for (Shard shard : shards) {
+            long stamp = shard.lock.readLock();
+            try {
+                ByteBuffer table = shard.table;
+                for (int i = 0; i < shard.capacity; i++) {
+                    int entry = i * ENTRY_BYTES;
+                    if (table.getInt(entry + GENERATION_OFFSET) != 0 && (table.getLong(entry + BITS_OFFSET) & bit) != 0) {
+                        if (count == ids.length) {
+                            ids = Arrays.copyOf(ids, count * 2);
+                        }
+                        ids[count++] = table.getInt(entry);
+                    }
+                }
+            } finally {
+                shard.lock.unlockRead(stamp);
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            long stamp = shard.lock.readLock();
+            try {
+                size += shard.size;
+            } finally {
+                shard.lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    // The top bits of the hash pick the shard, the low bits the entry within it
+    private Shard shardOf(int id) {
+        return shards[mix(id) >>> (Integer.SIZE - SHARD_BITS)];
+    }
+
+    // Caller holds a read stamp on the shard, which it validates before trusting the result
+    private List<NodeInfo> membersOf(long bits) {
+        List<NodeInfo> result = new ArrayList<>(Long.bitCount(bits));
+        while (bits != 0) {
+            // Only seen by an optimistic read that is about to fail validation
+            NodeInfo member = members[Long.numberOfTrailingZeros(bits)];
+            if (member != null) {
+                result.add(member);
+            }
+            bits &= bits - 1;
+        }
+        return result;
+    }
+
+    // Caller holds a shard's write lock; -1 when every slot is taken
+    private int slotOf(NodeInfo member) {
+        Integer slot = slots.get(member);
+        if (slot != null) {
+            return slot;
+        }
+        synchronized (slotLock) {
+            slot = slots.get(member);
+            if (slot != null) {
+                return slot;
+            }
+            if (usedSlots == -1L) {
+                if (!fullReported) {
+                    fullReported = true;
+                    System.err.printf("[REPLICA] Location index full (%d members), not indexing %s:%d%n",
+                            MAX_MEMBERS, member.getHost(), member.getPort());
+                }
+                return -1;
+            }
+            int next = Long.numberOfTrailingZeros(~usedSlots);
+            usedSlots |= 1L << next;
+            members[next] = member;
+            slots.put(member, next);
+            return next;
+        }
+    }
+
+    private static int mix(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private final class Shard {
+
+        private final StampedLock lock = new StampedLock();
+        private volatile ByteBuffer table;
+        private int capacity;
+        private int size;
+        private boolean overflowReported;
+
+        Shard(int capacity) {
+            this.capacity = capacity;
+            this.table = ByteBuffer.allocateDirect(capacity * ENTRY_BYTES);
+        }
+
+        int begin(int id) {
+            long stamp = lock.writeLock();
+            try {
+                int entry = findOrInsert(id);
+                if (entry < 0) {
+                    return 0;
+                }
+                int generation = table.getInt(entry + GENERATION_OFFSET) + 1;
+                if (generation == 0) {
+                    generation = 1;
+                }
+                table.putInt(entry + GENERATION_OFFSET, generation);
+                table.putLong(entry + BITS_OFFSET, 0L);
+                return generation;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        void add(int id, NodeInfo member, int generation) {
+            long stamp = lock.writeLock();
+            try {
+                int entry = find(table, capacity, id);
+                if (entry < 0 || table.getInt(entry + GENERATION_OFFSET) != generation) {
+                    return;
+                }
+                int slot = slotOf(member);
+                if (slot < 0) {
+                    return;
+                }
+                table.putLong(entry + BITS_OFFSET, table.getLong(entry + BITS_OFFSET) | (1L << slot));
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        void clear(long keep) {
+            long stamp = lock.writeLock();
+            try {
+                for (int i = 0; i < capacity; i++) {
+                    int entry = i * ENTRY_BYTES;
+                    if (table.getInt(entry + GENERATION_OFFSET) != 0) {
+                        table.putLong(entry + BITS_OFFSET, table.getLong(entry + BITS_OFFSET) & keep);
+                    }
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        // Resolved under the same stamp as the bits: a slot freed and handed to a newcomer after
+        // the bits were read would otherwise name the newcomer instead of the departed replica
+        List<NodeInfo> get(int id) {
+            long stamp = lock.tryOptimisticRead();
+            List<NodeInfo> result = membersOf(read(id));
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    result = membersOf(read(id));
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            return result;
+        }
+
+        // Readers normally take no lock at all and only retry if a writer got in between
+        long bits(int id) {
+            long stamp = lock.tryOptimisticRead();
+            long bits = read(id);
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    bits = read(id);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            return bits;
+        }
+
+        private long read(int id) {
+            ByteBuffer t = table;
+            int entry = find(t, t.capacity() / ENTRY_BYTES, id);
+            return entry < 0 ? 0L : t.getLong(entry + BITS_OFFSET);
+        }
+
+        // Caller holds the write lock; -1 when the shard is full and cannot grow any further
+        private int findOrInsert(int id) {
+            if ((size + 1) * 2 > capacity) {
+                if (capacity == MAX_SHARD_CAPACITY) {
+                    int entry = find(table, capacity, id);
+                    if (entry < 0 && !overflowReported) {
+                        overflowReported = true;
+                        System.err.printf("[REPLICA] Location index shard full (%d ids), new ids fall back to ring placement%n",
+                                size);
+                    }
+                    return entry;
+                }
+                resize();
+            }
+            int mask = capacity - 1;
+            int i = mix(id) & mask;
+            while (true) {
+                int entry = i * ENTRY_BYTES;
+                if (table.getInt(entry + GENERATION_OFFSET) == 0) {
+                    table.putInt(entry, id);
+                    table.putLong(entry + BITS_OFFSET, 0L);
+                    table.putInt(entry + GENERATION_OFFSET, 1);
+                    size++;
+                    return entry;
+                }
+                if (table.getInt(entry) == id) {
+                    return entry;
+                }
+                i = (i + 1) & mask;
+            }
+        }
+
+        private void resize() {
+            int newCapacity = capacity * 2;
+            ByteBuffer grown = ByteBuffer.allocateDirect(newCapacity * ENTRY_BYTES);
+            int mask = newCapacity - 1;
+            for (int old = 0; old < capacity; old++) {
+                int from = old * ENTRY_BYTES;
+                if (table.getInt(from + GENERATION_OFFSET) == 0) {
+                    continue;
+                }
+                int id = table.getInt(from);
+                int i = mix(id) & mask;
+                while (grown.getInt(i * ENTRY_BYTES + GENERATION_OFFSET) != 0) {
+                    i = (i + 1) & mask;
+                }
+                int to = i * ENTRY_BYTES;
+                grown.putInt(to, id);
+                grown.putLong(to + BITS_OFFSET, table.getLong(from + BITS_OFFSET));
+                grown.putInt(to + GENERATION_OFFSET, table.getInt(from + GENERATION_OFFSET));
+            }
+            capacity = newCapacity;
+            table = grown;
+        }
+    }
+
+    // Byte offset of the id's entry, or -1
+    private static int find(ByteBuffer t, int capacity, int id) {
+        int mask = capacity - 1;
+        int i = mix(id) & mask;
+        for (int probes = 0; probes < capacity; probes++) {
+            int entry = i * ENTRY_BYTES;
+            if (t.getInt(entry + GENERATION_OFFSET) == 0) {
+                return -1;
+            }
+            if (t.getInt(entry) == id) {
+                return entry;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.family;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import family.NodeInfo;
+
+// One immutable generation of the member list. The registry publishes a new view with the
+// next epoch on every change, so readers take the current one with a single volatile load
+// and iterate peers (every member except this node) without copying or filtering.
+public final class MembershipView {
+
+    private final long epoch;
+    private final NodeInfo self;
+    private final List<NodeInfo> members;
+    private final Set<NodeInfo> memberSet;
+    private final NodeInfo[] peers;
+    private final List<NodeInfo> peerList;
+    private final Set<NodeInfo> peerSet;
+
+    MembershipView(long epoch, NodeInfo self, Collection<NodeInfo> nodes) {
+        this.epoch = epoch;
+        this.self = self;
+        this.memberSet = Set.copyOf(nodes);
+        this.members = List.copyOf(memberSet);
+
+        NodeInfo[] others = new NodeInfo[members.size()];
+        int count = 0;
+        for (NodeInfo n : members) {
+            if (!n.equals(self)) {
+                others[count++] = n;
+            }
+        }
+        this.peers = Arrays.copyOf(others, count);
+        this.peerList = List.of(peers);
+        this.peerSet = Set.of(peers);
+    }
+
+    static MembershipView empty(NodeInfo self) {
+        return new MembershipView(0, self, List.of());
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public NodeInfo getSelf() {
+        return self;
+    }
+
+    // Every member, this node included once it has joined
+    public List<NodeInfo> getMembers() {
+        return members;
+    }
+
+    public List<NodeInfo> getPeers() {
+        return peerList;
+    }
+
+    public Set<NodeInfo> getPeerSet() {
+        return peerSet;
+    }
+
+    // peerCount/peer walk the peers by index so hot loops allocate no iterator
+    public int peerCount() {
+        return peers.length;
+    }
+
+    public NodeInfo peer(int index) {
+        return peers[index];
+    }
+
+    public boolean contains(NodeInfo node) {
+        return memberSet.contains(node);
+    }
+
+    public boolean isSelf(NodeInfo node) {
+        return self.equals(node);
+    }
+
+    public int size() {
+        return members.size();
+    }
+}
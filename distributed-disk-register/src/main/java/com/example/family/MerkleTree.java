@@ -0,0 +1,58 @@
+package com.example.family;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Hash tree over a fixed number of message-id ranges. A leaf is the sum of the digests of the
+// versions in its range, so a store updates it with one atomic add and no lock, in any order.
+// Inner nodes are derived from the leaves when a peer asks, laid out as a heap: the root is
+// node 1, node i has children 2i and 2i+1, and leaf r is node LEAVES + r.
+public class MerkleTree {
+
+    public static final int DEPTH = 10;
+    public static final int LEAVES = 1 << DEPTH;
+    public static final int ROOT = 1;
+
+    private final AtomicLongArray leaves = new AtomicLongArray(LEAVES);
+
+    public static int leafOf(String messageId) {
+        return (int) (fnv(messageId) >>> (64 - DEPTH));
+    }
+
+    public static boolean isLeaf(int node) {
+        return node >= LEAVES;
+    }
+
+    // Swaps one version of a message for another in its leaf; 0 stands for no version
+    public void replace(int leaf, long oldDigest, long newDigest) {
+        leaves.addAndGet(leaf, newDigest - oldDigest);
+    }
+
+    // Every node's hash, indexed by node number; cheap enough to rebuild per request
+    public long[] hashes() {
+        long[] nodes = new long[2 * LEAVES];
+        for (int i = 0; i < LEAVES; i++) {
+            nodes[LEAVES + i] = leaves.get(i);
+        }
+        for (int i = LEAVES - 1; i >= ROOT; i--) {
+            nodes[i] = mix(nodes[2 * i] * 31 + mix(nodes[2 * i + 1]));
+        }
+        return nodes;
+    }
+
+    public static long fnv(String text) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    // SplitMix64 finalizer, so nearby inputs land far apart
+    public static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
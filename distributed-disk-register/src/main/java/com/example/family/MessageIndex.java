@@ -0,0 +1,102 @@
+package com.example.family;
+
+import java.util.Arrays;
+
+// Open-addressing map from message id to where its payload sits on disk, kept in plain
+// arrays so millions of ids cost a few bytes each instead of boxed keys and entry objects.
+// Not thread-safe; MessageStore guards it.
+public class MessageIndex {
+
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private long[] locations;
+    private int[] lengths;
+    private int size;
+
+    public MessageIndex(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1) << 1);
+        allocate(capacity);
+    }
+
+    // location packs the segment number in the high half and the payload offset in the low half
+    public static long location(int segment, long offset) {
+        return ((long) segment << 32) | offset;
+    }
+
+    public static int segmentOf(long location) {
+        return (int) (location >>> 32);
+    }
+
+    public static long offsetOf(long location) {
+        return location & 0xFFFFFFFFL;
+    }
+
+    public void put(int id, long location, int length) {
+        if ((size + 1) * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        int slot = slot(id);
+        if (lengths[slot] == EMPTY) {
+            keys[slot] = id;
+            size++;
+        }
+        locations[slot] = location;
+        lengths[slot] = length;
+    }
+
+    // Returns the slot holding id or -1; read it with locationAt/lengthAt before the next put
+    public int find(int id) {
+        int slot = slot(id);
+        return lengths[slot] == EMPTY ? -1 : slot;
+    }
+
+    public long locationAt(int slot) {
+        return locations[slot];
+    }
+
+    public int lengthAt(int slot) {
+        return lengths[slot];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int slot(int id) {
+        int mask = keys.length - 1;
+        int slot = mix(id) & mask;
+        while (lengths[slot] != EMPTY && keys[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        long[] oldLocations = locations;
+        int[] oldLengths = lengths;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldLengths[i] != EMPTY) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                locations[slot] = oldLocations[i];
+                lengths[slot] = oldLengths[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        locations = new long[capacity];
+        lengths = new int[capacity];
+        Arrays.fill(lengths, EMPTY);
+    }
+
+    // Spread clustered ids so linear probing keeps its runs short
+    private static int mix(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,329 @@
+package com.example.family;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32C;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+
+// Messages live in append-only segment files; an in-memory index remembers where the latest
+// copy of every id starts. SET is one sequential append, GET one positional read.
+// In mmap mode segments are fixed-size mapped files and reads hand out slices of the mapping.
+public class MessageStore {
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    // id, payload length, CRC32C of id, length and payload
+    private static final int HEADER_BYTES = 12;
+    private static final long SEGMENT_BYTES = Long.parseLong(
+            System.getenv().getOrDefault("MESSAGE_SEGMENT_BYTES", String.valueOf(64L * 1024 * 1024)));
+    private static final boolean SYNC_WRITES = Boolean.parseBoolean(
+            System.getenv().getOrDefault("MESSAGE_SYNC_WRITES", "false"));
+    private static final boolean MAPPED = System.getenv()
+            .getOrDefault("MESSAGE_STORE_MODE", "channel").equalsIgnoreCase("mmap");
+
+    private final Path directory;
+    private final boolean mapped;
+    private final List<FileChannel> segments = new ArrayList<>();
+    // Only in mmap mode, one mapping per segment; never unmapped, so handed-out slices stay valid
+    private final List<MappedByteBuffer> mappings = new ArrayList<>();
+    private final MessageIndex index = new MessageIndex(1024);
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    private final CRC32C crc = new CRC32C();
+    private long activeSize;
+
+    public MessageStore(Path directory) throws IOException {
+        this(directory, MAPPED);
+    }
+
+    public MessageStore(Path directory, boolean mapped) throws IOException {
+        // Offsets inside a segment are handled as ints, and a mapping cannot exceed 2 GiB anyway
+        if (SEGMENT_BYTES <= HEADER_BYTES || SEGMENT_BYTES > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("MESSAGE_SEGMENT_BYTES must be between " + (HEADER_BYTES + 1)
+                    + " and " + Integer.MAX_VALUE + ", got " + SEGMENT_BYTES);
+        }
+        this.directory = directory;
+        this.mapped = mapped;
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    public void put(int id, String text) throws IOException {
+        put(id, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void put(int id, byte[] payload) throws IOException {
+        put(id, ByteBuffer.wrap(payload));
+    }
+
+    // Written straight from the ByteString's own bytes, without a copy onto the heap first
+    public void put(int id, ByteString payload) throws IOException {
+        put(id, payload.asReadOnlyByteBuffer());
+    }
+
+    private void put(int id, ByteBuffer payload) throws IOException {
+        int length = payload.remaining();
+        int recordBytes = HEADER_BYTES + length;
+        if (mapped && recordBytes > SEGMENT_BYTES) {
+            throw new IOException("Message " + id + " does not fit in a " + SEGMENT_BYTES + " byte segment");
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (activeSize > 0 && activeSize + recordBytes > SEGMENT_BYTES) {
+                roll();
+            }
+            header.clear();
+            header.putInt(id).putInt(length).putInt(checksum(id, payload)).flip();
+
+            int segment = segments.size() - 1;
+            long start = activeSize;
+            if (mapped) {
+                ByteBuffer target = mappings.get(segment).duplicate();
+                target.position((int) start);
+                target.put(header).put(payload.duplicate());
+                if (SYNC_WRITES) {
+                    mappings.get(segment).force((int) start, recordBytes);
+                }
+            } else {
+                FileChannel active = segments.get(segment);
+                ByteBuffer[] record = {header, payload.duplicate()};
+                long written = 0;
+                while (written < recordBytes) {
+                    written += active.write(record);
+                }
+                if (SYNC_WRITES) {
+                    active.force(false);
+                }
+            }
+            activeSize += recordBytes;
+            index.put(id, MessageIndex.location(segment, start + HEADER_BYTES), length);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Returns null if the id was never stored
+    public String get(int id) throws IOException {
+        ByteBuffer payload = read(id);
+        if (payload == null) {
+            return null;
+        }
+        if (payload.hasArray()) {
+            return new String(payload.array(), payload.arrayOffset(), payload.remaining(), StandardCharsets.UTF_8);
+        }
+        return StandardCharsets.UTF_8.decode(payload).toString();
+    }
+
+    // Same as get, but without decoding: in mmap mode the result wraps the mapping itself,
+    // so a gRPC response built from it never copies the payload onto the heap
+    public ByteString getBytes(int id) throws IOException {
+        ByteBuffer payload = read(id);
+        return payload == null ? null : UnsafeByteOperations.unsafeWrap(payload);
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            for (FileChannel segment : segments) {
+                try {
+                    segment.close();
+                } catch (IOException ignored) {
+                }
+            }
+            segments.clear();
+            mappings.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private ByteBuffer read(int id) throws IOException {
+        FileChannel segment;
+        MappedByteBuffer mapping = null;
+        long offset;
+        int length;
+
+        lock.readLock().lock();
+        try {
+            int slot = index.find(id);
+            if (slot < 0) {
+                return null;
+            }
+            long location = index.locationAt(slot);
+            length = index.lengthAt(slot);
+            int number = MessageIndex.segmentOf(location);
+            segment = segments.get(number);
+            if (mapped) {
+                mapping = mappings.get(number);
+            }
+            offset = MessageIndex.offsetOf(location);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        // Written bytes are never rewritten, so neither path needs the lock
+        if (mapping != null) {
+            return mapping.slice((int) offset, length).asReadOnlyBuffer();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (segment.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Segment ended inside message " + id);
+            }
+        }
+        return buffer.flip();
+    }
+
+    // Replays every segment in order so later copies of an id win, and cuts off a torn tail
+    private void recover() throws IOException {
+        TreeMap<Integer, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                files.put(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                        name.length() - SEGMENT_SUFFIX.length())), file);
+            }
+        }
+
+        long started = System.currentTimeMillis();
+        int records = 0;
+        long end = 0;
+        for (int expected = 0; files.containsKey(expected); expected++) {
+            FileChannel channel = FileChannel.open(files.get(expected),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segments.add(channel);
+            end = scan(expected, channel);
+            records += (int) (end >>> 32);
+            end &= 0xFFFFFFFFL;
+        }
+        if (segments.isEmpty()) {
+            roll();
+        } else {
+            activeSize = end;
+            if (mapped) {
+                for (int i = 0; i < segments.size(); i++) {
+                    boolean active = i == segments.size() - 1;
+                    FileChannel channel = segments.get(i);
+                    mappings.add(channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                            active ? Math.max(channel.size(), SEGMENT_BYTES) : channel.size()));
+                }
+            }
+        }
+
+        System.out.printf("[STORE] Loaded %d messages from %d records in %d %ssegments under %s (%d ms)%n",
+                index.size(), records, segments.size(), mapped ? "mapped " : "", directory,
+                System.currentTimeMillis() - started);
+    }
+
+    // Returns the record count in the high half and the end of valid data in the low half
+    private long scan(int number, FileChannel channel) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        long records = 0;
+        ByteBuffer head = ByteBuffer.allocate(HEADER_BYTES);
+        ByteBuffer payload = ByteBuffer.allocate(4096);
+
+        while (position + HEADER_BYTES <= size) {
+            head.clear();
+            readFully(channel, head, position);
+            head.flip();
+            int id = head.getInt();
+            int length = head.getInt();
+            int checksum = head.getInt();
+            if (length < 0 || position + HEADER_BYTES + length > size) {
+                break;
+            }
+
+            if (payload.capacity() < length) {
+                payload = ByteBuffer.allocate(Math.max(length, payload.capacity() * 2));
+            }
+            payload.clear().limit(length);
+            readFully(channel, payload, position + HEADER_BYTES);
+            payload.flip();
+            // Also how the zero-filled tail of a mapped segment ends the scan
+            if (checksum(id, payload) != checksum) {
+                break;
+            }
+
+            index.put(id, MessageIndex.location(number, position + HEADER_BYTES), length);
+            position += HEADER_BYTES + length;
+            records++;
+        }
+
+        // A mapped segment keeps its preallocated tail; stale bytes there fail the checksum
+        if (position < size && !mapped) {
+            System.err.printf("[STORE] Truncating %d unused or damaged bytes at the end of segment %d%n",
+                    size - position, number);
+            channel.truncate(position);
+        }
+        channel.position(position);
+        return records << 32 | position;
+    }
+
+    // Leaves the payload's position where it was
+    private int checksum(int id, ByteBuffer payload) {
+        int length = payload.remaining();
+        crc.reset();
+        crc.update(id >>> 24);
+        crc.update(id >>> 16);
+        crc.update(id >>> 8);
+        crc.update(id);
+        crc.update(length >>> 24);
+        crc.update(length >>> 16);
+        crc.update(length >>> 8);
+        crc.update(length);
+        crc.update(payload.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private void roll() throws IOException {
+        int number = segments.size();
+        Path file = directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segments.add(channel);
+        if (mapped) {
+            mappings.add(channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES));
+        }
+        activeSize = 0;
+        if (number > 0) {
+            System.out.printf("[STORE] Rolled to segment %d%n", number);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of segment");
+            }
+        }
+    }
+}
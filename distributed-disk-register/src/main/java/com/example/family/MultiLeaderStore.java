@@ -4,70 +4,147 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 import family.ChatMessage;
 
+// Safe to call from any number of gRPC threads. Each message id is resolved atomically inside
+// its map bin, so stores of different ids never wait on each other. The local clock is published
+// copy-on-write and advanced with a CAS loop: a published clock is never modified again, so
+// snapshots are free and consistent, and no thread ever blocks on the clock.
+// Messages are kept in one map per MerkleTree leaf, and each bin update also moves its leaf
+// hash, so a peer can compare the whole store by hash and fetch only the ranges that differ.
 public class MultiLeaderStore {
     
-    private final ConcurrentMap<String, VersionedMessage> messages;
-    private final VectorClock localClock;
+    private final List<ConcurrentMap<String, VersionedMessage>> ranges;
+    private final MerkleTree tree;
+    private final AtomicReference<VectorClock> localClock;
     private final String nodeId;
+    private final int nodeSlot;
+    // Tells this process's messages apart from those of an earlier run under the same node id
+    private final long epoch = System.currentTimeMillis();
     
     public MultiLeaderStore(String nodeId) {
-        this.messages = new ConcurrentHashMap<>();
-        this.localClock = new VectorClock();
+        this.ranges = new ArrayList<>(MerkleTree.LEAVES);
+        for (int i = 0; i < MerkleTree.LEAVES; i++) {
+            ranges.add(new ConcurrentHashMap<>());
+        }
+        this.tree = new MerkleTree();
+        this.localClock = new AtomicReference<>(new VectorClock());
         this.nodeId = nodeId;
+        this.nodeSlot = NodeIds.slot(nodeId);
     }
     
     public VersionedMessage storeLocal(ChatMessage message) {
-        localClock.increment(nodeId);
-        VectorClock messageClock = localClock.copy();
-        
-        String messageId = generateMessageId(message);
-        VersionedMessage versioned = new VersionedMessage(message, messageClock, nodeId);
+        VectorClock messageClock = advance();
         
-        messages.put(messageId, versioned);
-        System.out.println("[MULTI-LEADER] Stored local: " + messageId + " clock=" + messageClock);
+        VersionedMessage versioned = new VersionedMessage(message, messageClock, nodeId, epoch);
         
+        put(versioned);
         return versioned;
     }
     
-    public void storeRemote(VersionedMessage incomingMessage) {
-        ChatMessage message = incomingMessage.getMessage();
-        String messageId = generateMessageId(message);
-        
-        localClock.merge(incomingMessage.getVectorClock());
-        
-        VersionedMessage existing = messages.get(messageId);
-        
-        if (existing == null) {
-            messages.put(messageId, incomingMessage);
-            System.out.println("[MULTI-LEADER] Stored remote: " + messageId);
-        } else {
-            System.out.println("[CONFLICT] Detected for message: " + messageId);
-            VersionedMessage resolved = VersionedMessage.resolveConflict(existing, incomingMessage);
-            messages.put(messageId, resolved);
-            System.out.println("[CONFLICT] Kept version from: " + resolved.getOriginNodeId());
-        }
+    // False when this exact version was already held, e.g. a batch resent after its ack was lost
+    public boolean storeRemote(VersionedMessage incomingMessage) {
+        observe(incomingMessage.getVectorClock());
+        return put(incomingMessage);
+    }
+    
+    public long getEpoch() {
+        return epoch;
     }
     
     public List<VersionedMessage> getAllMessages() {
-        return new ArrayList<>(messages.values());
+        List<VersionedMessage> all = new ArrayList<>();
+        for (ConcurrentMap<String, VersionedMessage> range : ranges) {
+            all.addAll(range.values());
+        }
+        return all;
+    }
+    
+    public List<VersionedMessage> getRange(int leaf) {
+        return new ArrayList<>(ranges.get(leaf).values());
+    }
+    
+    // Every tree node's hash, indexed by node number
+    public long[] merkleHashes() {
+        return tree.hashes();
     }
     
     public VectorClock getCurrentClock() {
-        return localClock.copy();
+        return localClock.get().copy();
+    }
+    
+    // Ticks our own entry; the returned clock is the published one and must not be modified
+    private VectorClock advance() {
+        while (true) {
+            VectorClock current = localClock.get();
+            VectorClock next = current.copy();
+            next.increment(nodeSlot);
+            if (localClock.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+    
+    private void observe(VectorClock remote) {
+        while (true) {
+            VectorClock current = localClock.get();
+            if (remote.happenedBefore(current) || remote.equals(current)) {
+                return;
+            }
+            VectorClock next = current.copy();
+            next.merge(remote);
+            if (localClock.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+    
+    private boolean put(VersionedMessage incoming) {
+        String messageId = incoming.getMessageId();
+        int leaf = MerkleTree.leafOf(messageId);
+        boolean[] held = new boolean[1];
+        ranges.get(leaf).compute(messageId, (id, existing) -> {
+            held[0] = existing != null && existing.digest() == incoming.digest();
+            VersionedMessage kept = existing == null ? incoming : resolve(id, existing, incoming);
+            tree.replace(leaf, existing == null ? 0 : existing.digest(), kept.digest());
+            return kept;
+        });
+        return !held[0];
     }
     
-    private String generateMessageId(ChatMessage message) {
-        return message.getFromHost() + ":" + message.getFromPort() + ":" + message.getTimestamp();
+    // Runs inside the id's map bin, so two stores of the same id resolve one after the other
+    private static VersionedMessage resolve(String messageId, VersionedMessage existing, VersionedMessage incoming) {
+        // Anti-entropy hands back versions we already hold; that is no conflict
+        if (existing.digest() == incoming.digest()) {
+            return existing;
+        }
+        System.out.println("[CONFLICT] Detected for message: " + messageId);
+        VersionedMessage resolved = VersionedMessage.resolveConflict(existing, incoming);
+        System.out.println("[CONFLICT] Kept version from: " + resolved.getOriginNodeId());
+        return resolved;
     }
     
+    // Removes through the bins as well, so the tree never counts a message that is gone
     public void clear() {
-        messages.clear();
+        for (int leaf = 0; leaf < MerkleTree.LEAVES; leaf++) {
+            ConcurrentMap<String, VersionedMessage> range = ranges.get(leaf);
+            int index = leaf;
+            for (String messageId : range.keySet()) {
+                range.computeIfPresent(messageId, (id, existing) -> {
+                    tree.replace(index, existing.digest(), 0);
+                    return null;
+                });
+            }
+        }
     }
     
     public int size() {
-        return messages.size();
+        int size = 0;
+        for (ConcurrentMap<String, VersionedMessage> range : ranges) {
+            size += range.size();
+        }
+        return size;
     }
 }
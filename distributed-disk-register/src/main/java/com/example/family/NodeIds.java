@@ -0,0 +1,46 @@
+package com.example.family;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Interns node ids into small dense slots so per-node counters can live in plain arrays.
+// Slots are process-wide and never reused; on the wire clocks still travel keyed by id,
+// so two nodes never need to agree on slot numbers.
+public final class NodeIds {
+
+    private static final ConcurrentMap<String, Integer> slots = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[16];
+    private static int size;
+
+    private NodeIds() {
+    }
+
+    public static int slot(String nodeId) {
+        Integer slot = slots.get(nodeId);
+        return slot != null ? slot : assign(nodeId);
+    }
+
+    public static String name(int slot) {
+        return names[slot];
+    }
+
+    public static int size() {
+        return slots.size();
+    }
+
+    private static synchronized int assign(String nodeId) {
+        Integer existing = slots.get(nodeId);
+        if (existing != null) {
+            return existing;
+        }
+        int slot = size++;
+        if (slot == names.length) {
+            names = Arrays.copyOf(names, names.length * 2);
+        }
+        // Name first: whoever gets the slot from the map is then guaranteed to see it
+        names[slot] = nodeId;
+        slots.put(nodeId, slot);
+        return slot;
+    }
+}
@@ -5,19 +5,16 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.util.List;
-import java.util.concurrent.Executors;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import family.ChatMessage;
-import family.Empty;
-import family.FamilyServiceGrpc;
-import family.FamilyView;
 import family.NodeInfo;
-import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
 
@@ -25,24 +22,30 @@ public class NodeMain {
 
     private static final int START_PORT = 5555;
     private static final int PRINT_INTERVAL_SECONDS = 10;
+    private static ChannelPool channelPool;
     private static BroadcastQueue broadcastQueue;
     private static LeaderElection leaderElection;
     private static TcpListener tcpListener;
+    private static ReplicationCoordinator replication;
+    private static FailureDetector failureDetector;
+    private static ReadCache readCache;
+    private static final String MESSAGE_DIR = System.getenv().getOrDefault("MESSAGE_DIR", "messages");
     private static final boolean USE_REDIS = Boolean.parseBoolean(
             System.getenv().getOrDefault("USE_REDIS", "false")
     );
+    private static final boolean USE_GOSSIP = Boolean.parseBoolean(
+            System.getenv().getOrDefault("USE_GOSSIP", "false")
+    );
 
     public static void main(String[] args) throws Exception {
         String host = "127.0.0.1";
-        int port = findFreePort(START_PORT);
+        int port = Bootstrap.claimPort(START_PORT);
 
         NodeInfo self = NodeInfo.newBuilder()
                 .setHost(host)
                 .setPort(port)
                 .build();
 
-        broadcastQueue = new BroadcastQueue();
-        
         // Choose registry implementation based on environment variable
         NodeRegistry registry;
         RedisNodeRegistry redisRegistry = null;
@@ -50,27 +53,60 @@ public class NodeMain {
         if (USE_REDIS) {
             System.out.println("[CONFIG] Using Redis-backed registry");
             redisRegistry = new RedisNodeRegistry("family-cluster");
-            registry = new NodeRegistryAdapter(redisRegistry);
+            registry = new NodeRegistryAdapter(redisRegistry, self);
+        } else if (USE_GOSSIP) {
+            System.out.println("[CONFIG] Using SWIM gossip registry");
+            registry = new SwimRegistry(self);
         } else {
             System.out.println("[CONFIG] Using in-memory registry");
-            registry = new NodeRegistry();
+            registry = new NodeRegistry(self);
         }
+
+        channelPool = new ChannelPool(registry);
+        broadcastQueue = new BroadcastQueue(registry, channelPool);
         
-        FamilyServiceImpl service = new FamilyServiceImpl(registry, self);
+        MultiLeaderStore chatStore = new MultiLeaderStore(host + ":" + port);
+        FamilyServiceImpl service = new FamilyServiceImpl(registry, self, chatStore);
+
+        // One directory per node, since local members share the working directory
+        MessageStore messageStore = new MessageStore(Paths.get(MESSAGE_DIR, String.valueOf(port)));
+
+        ToleranceConfig toleranceConfig = ToleranceConfig.load();
+        System.out.println("[CONFIG] Replication " + toleranceConfig);
+        replication = new ReplicationCoordinator(registry, channelPool, messageStore, toleranceConfig);
+
+        failureDetector = new FailureDetector(registry, HeartbeatMonitor.getIntervalMillis());
+        ReplicaReader replicaReader = new ReplicaReader(replication, channelPool, failureDetector);
 
-        tcpListener = new TcpListener(registry, self, broadcastQueue);
-        leaderElection = new LeaderElection(self, registry, tcpListener);
+        readCache = ReadCache.fromEnvironment();
+
+        tcpListener = new TcpListener(registry, self, broadcastQueue, messageStore, replication,
+                replicaReader, readCache, chatStore);
+        leaderElection = new LeaderElection(self, registry, tcpListener, channelPool);
         service.setLeaderElection(leaderElection);
 
-        Server server = ServerBuilder
+        ExecutionMode executionMode = ExecutionMode.current();
+        System.out.println("[CONFIG] Execution mode: " + executionMode);
+
+        ServerBuilder<?> serverBuilder = ServerBuilder
                 .forPort(port)
+                .permitKeepAliveTime(10, TimeUnit.SECONDS)
+                .permitKeepAliveWithoutCalls(true)
                 .addService(service)
-                .build()
-                .start();
+                .addService(new StorageServiceImpl(messageStore))
+                .addService(new AntiEntropyServiceImpl(chatStore));
+        if (registry instanceof SwimRegistry) {
+            serverBuilder.addService(new GossipServiceImpl((SwimRegistry) registry));
+        }
+        ExecutorService rpcExecutor = executionMode.newTaskExecutor("grpc-server");
+        if (rpcExecutor != null) {
+            serverBuilder.executor(rpcExecutor);
+        }
+        Server server = serverBuilder.build().start();
 
                 System.out.printf("Node started on %s:%d%n", host, port);
 
-                discoverExistingNodes(host, port, registry, self);
+                new Bootstrap(self, registry, channelPool, START_PORT).join();
 
                 NodeInfo initialLeader = leaderElection.findInitialLeader();
 
@@ -82,7 +118,12 @@ public class NodeMain {
                 }
 
                 startFamilyPrinter(registry, self, leaderElection);
-                startHealthChecker(registry, self, leaderElection);
+                if (registry instanceof SwimRegistry) {
+                    ((SwimRegistry) registry).start(channelPool);
+                }
+                new HeartbeatMonitor(registry, channelPool, failureDetector, leaderElection,
+                        !(registry instanceof SwimRegistry)).start();
+                new AntiEntropy(registry, channelPool, chatStore).start();
                 
                 // Heartbeat for Redis TTL refresh
                 if (USE_REDIS && registry instanceof NodeRegistryAdapter) {
@@ -167,48 +208,8 @@ private static void broadcastToFamily(NodeRegistry registry,
 }
 
 
-    private static int findFreePort(int startPort) {
-        int port = startPort;
-        while (true) {
-            try (ServerSocket ignored = new ServerSocket(port)) {
-                return port;
-            } catch (IOException e) {
-                port++;
-            }
-        }
-    }
-
-    private static void discoverExistingNodes(String host,
-                                              int selfPort,
-                                              NodeRegistry registry,
-                                              NodeInfo self) {
-
-        for (int port = START_PORT; port < selfPort; port++) {
-            ManagedChannel channel = null;
-            try {
-                channel = ManagedChannelBuilder
-                        .forAddress(host, port)
-                        .usePlaintext()
-                        .build();
-
-                FamilyServiceGrpc.FamilyServiceBlockingStub stub =
-                        FamilyServiceGrpc.newBlockingStub(channel);
-
-                FamilyView view = stub.join(self);
-                registry.addAll(view.getMembersList());
-
-                System.out.printf("Joined through %s:%d, family size now: %d%n",
-                        host, port, registry.snapshot().size());
-
-            } catch (Exception ignored) {
-            } finally {
-                if (channel != null) channel.shutdownNow();
-            }
-        }
-    }
-
     private static void startFamilyPrinter(NodeRegistry registry, NodeInfo self, LeaderElection election) {
-        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        ScheduledExecutorService scheduler = ExecutionMode.current().newScheduler("family-printer");
 
         scheduler.scheduleAtFixedRate(() -> {
             List<NodeInfo> members = registry.snapshot();
@@ -231,71 +232,45 @@ private static void broadcastToFamily(NodeRegistry registry,
                         n.getPort(),
                         isMe ? " (me)" : "");
             }
-            System.out.println("======================================");
-        }, 3, PRINT_INTERVAL_SECONDS, TimeUnit.SECONDS);
-    }
-
-    private static void startHealthChecker(NodeRegistry registry, NodeInfo self,
-                                           LeaderElection election) {
-    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
 
-    scheduler.scheduleAtFixedRate(() -> {
-        List<NodeInfo> members = registry.snapshot();
-        NodeInfo currentLeader = election.getLeader();
-        boolean leaderAlive = false;
-
-        for (NodeInfo n : members) {
-            if (n.getHost().equals(self.getHost()) && n.getPort() == self.getPort()) {
-                continue;
+            Map<NodeInfo, Long> stored = replication.getStoredCounts();
+            if (!stored.isEmpty()) {
+                System.out.println("Replica load:");
+                stored.forEach((member, count) -> System.out.printf(" - %s:%d stored=%d%n",
+                        member.getHost(), member.getPort(), count));
             }
 
-            ManagedChannel channel = null;
-            try {
-                channel = ManagedChannelBuilder
-                        .forAddress(n.getHost(), n.getPort())
-                        .usePlaintext()
-                        .build();
-
-                FamilyServiceGrpc.FamilyServiceBlockingStub stub =
-                        FamilyServiceGrpc.newBlockingStub(channel);
-
-                stub.getFamily(Empty.newBuilder().build());
+            String ringReport = replication.takeRingReport();
+            if (ringReport != null) {
+                System.out.print(ringReport);
+            }
 
-                if (currentLeader != null &&
-                    n.getHost().equals(currentLeader.getHost()) &&
-                    n.getPort() == currentLeader.getPort()) {
-                    leaderAlive = true;
-                }
+            if (readCache.getHits() + readCache.getMisses() > 0) {
+                System.out.printf("Read cache: hits=%d misses=%d evictions=%d entries=%d bytes=%d%n",
+                        readCache.getHits(), readCache.getMisses(), readCache.getEvictions(),
+                        readCache.size(), readCache.getBytes());
+            }
 
-            } catch (Exception e) {
-                System.out.printf("Node %s:%d unreachable, removing from family%n",
-                        n.getHost(), n.getPort());
-                registry.remove(n);
-
-                if (currentLeader != null &&
-                    n.getHost().equals(currentLeader.getHost()) &&
-                    n.getPort() == currentLeader.getPort()) {
-                    System.out.println("[WARNING] Leader is down!");
-                    leaderAlive = false;
-                }
-            } finally {
-                if (channel != null) {
-                    channel.shutdownNow();
+            List<BroadcastPipeline> pipelines = broadcastQueue.pipelines();
+            if (!pipelines.isEmpty()) {
+                System.out.printf("Broadcast (backpressure pauses=%d%s):%n",
+                        broadcastQueue.getBackpressurePauses(),
+                        broadcastQueue.isOverloaded() ? ", OVERLOADED" : "");
+                for (BroadcastPipeline p : pipelines) {
+                    System.out.printf(" - %s:%d delivered=%d batches=%d failed=%d inFlight=%d pending=%d"
+                                    + " retrying=%d rejected=%d dropped=%d circuit=%s%n",
+                            p.getTarget().getHost(), p.getTarget().getPort(),
+                            p.getDelivered(), p.getBatches(), p.getFailed(),
+                            p.getInFlight(), p.getPending(), p.getRetrying(),
+                            p.getRejected(), p.getDropped(), p.getCircuitState());
                 }
             }
-        }
-
-        if (currentLeader != null && !leaderAlive &&
-            !election.isLeader()) {
-            System.out.println("Leader is dead, starting election...");
-            election.startElection();
-        }
-
-    }, 5, 10, TimeUnit.SECONDS);
-}
+            System.out.println("======================================");
+        }, 3, PRINT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
 
     private static void startRedisHeartbeat(NodeRegistryAdapter registry, NodeInfo self) {
-        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        ScheduledExecutorService scheduler = ExecutionMode.current().newScheduler("redis-heartbeat");
         scheduler.scheduleAtFixedRate(() -> {
             try {
                 registry.heartbeat(self);
@@ -3,27 +3,118 @@ package com.example.family;
 import family.NodeInfo;
 
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
+// Membership is published copy-on-write: every change builds a new MembershipView with the
+// next epoch, so readers never copy or lock. View listeners run in epoch order on the thread
+// that made the change and must not block.
 public class NodeRegistry {
 
-    private final Set<NodeInfo> nodes = ConcurrentHashMap.newKeySet();
+    private final NodeInfo self;
+    private final Set<NodeInfo> nodes = new HashSet<>();
+    private final List<BiConsumer<MembershipView, MembershipView>> viewListeners = new CopyOnWriteArrayList<>();
+    private final List<Consumer<NodeInfo>> removalListeners = new CopyOnWriteArrayList<>();
+    private volatile MembershipView view;
+
+    public NodeRegistry(NodeInfo self) {
+        this.self = self;
+        this.view = MembershipView.empty(self);
+    }
 
     public void add(NodeInfo node) {
-        nodes.add(node);
+        if (view.contains(node)) {
+            return;
+        }
+        synchronized (this) {
+            if (nodes.add(node)) {
+                publish(nodes);
+            }
+        }
     }
 
     public void addAll(Collection<NodeInfo> others) {
-        nodes.addAll(others);
+        synchronized (this) {
+            if (nodes.addAll(others)) {
+                publish(nodes);
+            }
+        }
     }
 
+    // True when other members learn about a join without the joiner telling each of them
+    public boolean propagatesJoins() {
+        return false;
+    }
+
+    public MembershipView view() {
+        return view;
+    }
+
+    // Immutable; kept for callers that want every member including this node
     public List<NodeInfo> snapshot() {
-        return List.copyOf(nodes);
+        return view.getMembers();
     }
 
     public void remove(NodeInfo node) {
-        nodes.remove(node);
+        synchronized (this) {
+            if (nodes.remove(node)) {
+                publish(nodes);
+            }
+        }
+    }
+
+    // Called with the previous and the new view after every change
+    public void addViewListener(BiConsumer<MembershipView, MembershipView> listener) {
+        viewListeners.add(listener);
+    }
+
+    public void addRemovalListener(Consumer<NodeInfo> listener) {
+        removalListeners.add(listener);
+    }
+
+    // Installs members as the next view if it differs from the current one
+    protected synchronized void publish(Collection<NodeInfo> members) {
+        MembershipView previous = view;
+        if (previous.size() == members.size() && containsAll(previous, members)) {
+            return;
+        }
+        MembershipView current = new MembershipView(previous.getEpoch() + 1, self, members);
+        view = current;
+
+        for (BiConsumer<MembershipView, MembershipView> listener : viewListeners) {
+            try {
+                listener.accept(previous, current);
+            } catch (Exception e) {
+                System.err.println("View listener failed: " + e.getMessage());
+            }
+        }
+        for (NodeInfo node : previous.getMembers()) {
+            if (!current.contains(node)) {
+                fireRemoved(node);
+            }
+        }
+    }
+
+    private static boolean containsAll(MembershipView view, Collection<NodeInfo> members) {
+        for (NodeInfo node : members) {
+            if (!view.contains(node)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void fireRemoved(NodeInfo node) {
+        for (Consumer<NodeInfo> listener : removalListeners) {
+            try {
+                listener.accept(node);
+            } catch (Exception e) {
+                System.err.println("Removal listener failed: " + e.getMessage());
+            }
+        }
     }
 }
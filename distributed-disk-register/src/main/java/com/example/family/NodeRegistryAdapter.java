@@ -1,7 +1,6 @@
 package com.example.family;
 
 import java.util.Collection;
-import java.util.List;
 
 import family.NodeInfo;
 
@@ -9,8 +8,12 @@ public class NodeRegistryAdapter extends NodeRegistry {
     
     private final RedisNodeRegistry redisRegistry;
     
-    public NodeRegistryAdapter(RedisNodeRegistry redisRegistry) {
+    public NodeRegistryAdapter(RedisNodeRegistry redisRegistry, NodeInfo self) {
+        super(self);
         this.redisRegistry = redisRegistry;
+        // Changes made by other nodes or expired in Redis publish a new view here too
+        redisRegistry.setChangeListener(this::sync);
+        sync();
     }
     
     @Override
@@ -24,8 +27,8 @@ public class NodeRegistryAdapter extends NodeRegistry {
     }
     
     @Override
-    public List<NodeInfo> snapshot() {
-        return redisRegistry.snapshot();
+    public boolean propagatesJoins() {
+        return true;
     }
     
     @Override
@@ -40,4 +43,9 @@ public class NodeRegistryAdapter extends NodeRegistry {
     public void close() {
         redisRegistry.close();
     }
+
+    // Reads the Redis view inside the publish lock so racing notifications cannot install a stale one
+    private synchronized void sync() {
+        publish(redisRegistry.snapshot());
+    }
 }
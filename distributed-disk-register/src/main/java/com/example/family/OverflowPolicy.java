@@ -0,0 +1,11 @@
+package com.example.family;
+
+public enum OverflowPolicy {
+    BLOCK,
+    DROP_OLDEST,
+    REJECT;
+
+    public static OverflowPolicy parse(String value) {
+        return valueOf(value.trim().toUpperCase().replace('-', '_'));
+    }
+}
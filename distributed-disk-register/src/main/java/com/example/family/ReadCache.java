@@ -0,0 +1,141 @@
+package com.example.family;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Segmented LRU over message texts, bounded by heap bytes. New entries start in probation and
+// are promoted to the protected segment on a second hit, so one scan over many cold ids
+// cannot push out the hot ones.
+public class ReadCache {
+
+    private static final long ENTRY_OVERHEAD_BYTES = 64;
+    // A String holds UTF-16 chars; compact Latin-1 strings take half, so this is an upper bound
+    private static final long HEAP_BYTES_PER_CHAR = 2;
+    private static final int PROTECTED_PERCENT = 80;
+
+    private final long maxBytes;
+    private final long maxProtectedBytes;
+    private final LinkedHashMap<Integer, String> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Integer, String> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+    private long probationBytes;
+    private long protectedBytes;
+    // Bumped on every invalidation so a read that started before a SET cannot cache the old text
+    private long invalidations;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public ReadCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.maxProtectedBytes = maxBytes * PROTECTED_PERCENT / 100;
+    }
+
+    public static ReadCache fromEnvironment() {
+        return new ReadCache(Long.parseLong(
+                System.getenv().getOrDefault("READ_CACHE_BYTES", String.valueOf(64L * 1024 * 1024))));
+    }
+
+    public synchronized String get(int id) {
+        String text = protectedSegment.get(id);
+        if (text != null) {
+            hits++;
+            return text;
+        }
+        text = probation.remove(id);
+        if (text == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        probationBytes -= heapBytes(text);
+        protectedSegment.put(id, text);
+        protectedBytes += heapBytes(text);
+        demoteOverflow();
+        return text;
+    }
+
+    // Take before fetching, hand back to put, so a SET in between wins
+    public synchronized long stamp() {
+        return invalidations;
+    }
+
+    public synchronized void put(int id, String text, long stamp) {
+        long bytes = heapBytes(text);
+        if (stamp != invalidations || bytes > maxBytes) {
+            return;
+        }
+        removeEntry(id);
+        probation.put(id, text);
+        probationBytes += bytes;
+        evictOverflow();
+    }
+
+    public synchronized void invalidate(int id) {
+        invalidations++;
+        removeEntry(id);
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return probation.size() + protectedSegment.size();
+    }
+
+    public synchronized long getBytes() {
+        return probationBytes + protectedBytes;
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    private void removeEntry(int id) {
+        String old = probation.remove(id);
+        if (old != null) {
+            probationBytes -= heapBytes(old);
+        }
+        old = protectedSegment.remove(id);
+        if (old != null) {
+            protectedBytes -= heapBytes(old);
+        }
+    }
+
+    // The least recently used protected entries get one more chance in probation
+    private void demoteOverflow() {
+        Iterator<Map.Entry<Integer, String>> it = protectedSegment.entrySet().iterator();
+        while (protectedBytes > maxProtectedBytes && it.hasNext()) {
+            Map.Entry<Integer, String> eldest = it.next();
+            it.remove();
+            long bytes = heapBytes(eldest.getValue());
+            protectedBytes -= bytes;
+            probation.put(eldest.getKey(), eldest.getValue());
+            probationBytes += bytes;
+        }
+        evictOverflow();
+    }
+
+    private void evictOverflow() {
+        Iterator<Map.Entry<Integer, String>> it = probation.entrySet().iterator();
+        while (probationBytes + protectedBytes > maxBytes && it.hasNext()) {
+            probationBytes -= heapBytes(it.next().getValue());
+            it.remove();
+            evictions++;
+        }
+    }
+
+    private static long heapBytes(String text) {
+        return ENTRY_OVERHEAD_BYTES + HEAP_BYTES_PER_CHAR * text.length();
+    }
+}
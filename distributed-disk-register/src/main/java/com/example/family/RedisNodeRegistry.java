@@ -3,112 +3,236 @@ package com.example.family;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 
 import family.NodeInfo;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 
+// Membership lives in one sorted set per cluster, scored by each member's last heartbeat.
+// snapshot() never leaves the process: it reads a local view that pub/sub events keep
+// current, and every heartbeat reconciles it with the sorted set in one pipelined round trip.
 public class RedisNodeRegistry {
 
-    private static final String REDIS_KEY_PREFIX = "family:nodes:";
+    private static final String MEMBERS_KEY_PREFIX = "family:members:";
+    private static final String EVENTS_CHANNEL_PREFIX = "family:events:";
     private static final int EXPIRE_SECONDS = 30;
-    
+    private static final long RESUBSCRIBE_MILLIS = 1000;
+
     private final JedisPool jedisPool;
-    private final String clusterName;
-    
+    private final String membersKey;
+    private final String eventsChannel;
+    private final Set<NodeInfo> view = ConcurrentHashMap.newKeySet();
+    private final Subscriber subscriber = new Subscriber();
+    private volatile Runnable changeListener = () -> { };
+    private volatile boolean closed;
+
     public RedisNodeRegistry(String redisHost, int redisPort, String clusterName) {
         JedisPoolConfig poolConfig = new JedisPoolConfig();
         poolConfig.setMaxTotal(10);
         poolConfig.setMaxIdle(5);
         poolConfig.setMinIdle(1);
         poolConfig.setTestOnBorrow(true);
-        
+
         this.jedisPool = new JedisPool(poolConfig, redisHost, redisPort, 2000);
-        this.clusterName = clusterName;
-        
+        this.membersKey = MEMBERS_KEY_PREFIX + clusterName;
+        this.eventsChannel = EVENTS_CHANNEL_PREFIX + clusterName;
+
         System.out.println("[REDIS] Connected to Redis at " + redisHost + ":" + redisPort);
+
+        refresh();
+        Thread thread = new Thread(subscriber, "redis-subscriber");
+        thread.setDaemon(true);
+        thread.start();
     }
-    
+
     public RedisNodeRegistry(String clusterName) {
-        String redisHost = System.getenv().getOrDefault("REDIS_HOST", "localhost");
-        int redisPort = Integer.parseInt(System.getenv().getOrDefault("REDIS_PORT", "6379"));
-        
-        JedisPoolConfig poolConfig = new JedisPoolConfig();
-        poolConfig.setMaxTotal(10);
-        poolConfig.setMaxIdle(5);
-        poolConfig.setMinIdle(1);
-        poolConfig.setTestOnBorrow(true);
-        
-        this.jedisPool = new JedisPool(poolConfig, redisHost, redisPort, 2000);
-        this.clusterName = clusterName;
-        
-        System.out.println("[REDIS] Connected to Redis at " + redisHost + ":" + redisPort);
+        this(System.getenv().getOrDefault("REDIS_HOST", "localhost"),
+                Integer.parseInt(System.getenv().getOrDefault("REDIS_PORT", "6379")),
+                clusterName);
+    }
+
+    // Called whenever the local view gains or loses a member, whoever changed it
+    public void setChangeListener(Runnable listener) {
+        this.changeListener = listener;
     }
-    
+
     public void add(NodeInfo node) {
+        String value = encode(node);
         try (Jedis jedis = jedisPool.getResource()) {
-            String key = getNodeKey(node);
-            String value = node.getHost() + ":" + node.getPort();
-            jedis.setex(key, EXPIRE_SECONDS, value);
-            System.out.println("[REDIS] Added node: " + value);
+            Pipeline pipeline = jedis.pipelined();
+            Response<Long> added = pipeline.zadd(membersKey, System.currentTimeMillis(), value);
+            pipeline.publish(eventsChannel, "+" + value);
+            pipeline.sync();
+            if (added.get() > 0) {
+                System.out.println("[REDIS] Added node: " + value);
+            }
+            addToView(node);
         } catch (Exception e) {
             System.err.println("[REDIS] Failed to add node: " + e.getMessage());
         }
     }
-    
+
     public void addAll(Collection<NodeInfo> others) {
         others.forEach(this::add);
     }
-    
+
     public List<NodeInfo> snapshot() {
-        try (Jedis jedis = jedisPool.getResource()) {
-            String pattern = REDIS_KEY_PREFIX + clusterName + ":*";
-            Set<String> keys = jedis.keys(pattern);
-            
-            return keys.stream()
-                    .map(key -> {
-                        String value = jedis.get(key);
-                        if (value != null) {
-                            String[] parts = value.split(":");
-                            return NodeInfo.newBuilder()
-                                    .setHost(parts[0])
-                                    .setPort(Integer.parseInt(parts[1]))
-                                    .build();
-                        }
-                        return null;
-                    })
-                    .filter(node -> node != null)
-                    .collect(Collectors.toList());
-        } catch (Exception e) {
-            System.err.println("[REDIS] Failed to get snapshot: " + e.getMessage());
-            return List.of();
-        }
+        return List.copyOf(view);
     }
-    
+
     public void remove(NodeInfo node) {
+        String value = encode(node);
         try (Jedis jedis = jedisPool.getResource()) {
-            String key = getNodeKey(node);
-            jedis.del(key);
-            System.out.println("[REDIS] Removed node: " + node.getHost() + ":" + node.getPort());
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.zrem(membersKey, value);
+            pipeline.publish(eventsChannel, "-" + value);
+            pipeline.sync();
+            System.out.println("[REDIS] Removed node: " + value);
         } catch (Exception e) {
             System.err.println("[REDIS] Failed to remove node: " + e.getMessage());
         }
+        removeFromView(node);
     }
-    
+
+    // Refreshes our score, drops members whose heartbeats stopped and reloads the view
     public void heartbeat(NodeInfo node) {
-        add(node); // Refresh TTL
+        long now = System.currentTimeMillis();
+        List<String> members;
+        try (Jedis jedis = jedisPool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            Response<Long> added = pipeline.zadd(membersKey, now, encode(node));
+            pipeline.zremrangeByScore(membersKey, Double.NEGATIVE_INFINITY, now - EXPIRE_SECONDS * 1000.0);
+            Response<List<String>> all = pipeline.zrange(membersKey, 0, -1);
+            pipeline.sync();
+            if (added.get() > 0) {
+                jedis.publish(eventsChannel, "+" + encode(node));
+            }
+            members = all.get();
+        }
+        reconcile(members);
     }
-    
+
     public void close() {
+        closed = true;
+        subscriber.stop();
         if (jedisPool != null && !jedisPool.isClosed()) {
             jedisPool.close();
             System.out.println("[REDIS] Connection closed");
         }
     }
-    
-    private String getNodeKey(NodeInfo node) {
-        return REDIS_KEY_PREFIX + clusterName + ":" + node.getHost() + ":" + node.getPort();
+
+    private void refresh() {
+        try (Jedis jedis = jedisPool.getResource()) {
+            reconcile(jedis.zrangeByScore(membersKey,
+                    System.currentTimeMillis() - EXPIRE_SECONDS * 1000.0, Double.POSITIVE_INFINITY));
+        } catch (Exception e) {
+            System.err.println("[REDIS] Failed to load members: " + e.getMessage());
+        }
+    }
+
+    private void reconcile(List<String> members) {
+        Set<NodeInfo> current = ConcurrentHashMap.newKeySet();
+        for (String member : members) {
+            NodeInfo node = decode(member);
+            if (node != null) {
+                current.add(node);
+            }
+        }
+        if (view.addAll(current)) {
+            changeListener.run();
+        }
+        for (NodeInfo node : view) {
+            if (!current.contains(node)) {
+                removeFromView(node);
+            }
+        }
+    }
+
+    private void addToView(NodeInfo node) {
+        if (view.add(node)) {
+            changeListener.run();
+        }
+    }
+
+    private void removeFromView(NodeInfo node) {
+        if (view.remove(node)) {
+            changeListener.run();
+        }
+    }
+
+    private static String encode(NodeInfo node) {
+        return node.getHost() + ":" + node.getPort();
+    }
+
+    private static NodeInfo decode(String value) {
+        int colon = value.lastIndexOf(':');
+        if (colon < 0) {
+            return null;
+        }
+        try {
+            return NodeInfo.newBuilder()
+                    .setHost(value.substring(0, colon))
+                    .setPort(Integer.parseInt(value.substring(colon + 1)))
+                    .build();
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Applies "+host:port" / "-host:port" events; resubscribes and reloads after a dropped connection
+    private final class Subscriber extends JedisPubSub implements Runnable {
+
+        @Override
+        public void run() {
+            while (!closed) {
+                try (Jedis jedis = jedisPool.getResource()) {
+                    jedis.subscribe(this, eventsChannel);
+                } catch (Exception e) {
+                    if (!closed) {
+                        System.err.println("[REDIS] Subscription lost: " + e.getMessage());
+                    }
+                }
+                if (!closed) {
+                    try {
+                        Thread.sleep(RESUBSCRIBE_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        // Events published while we were not subscribed are missed, so start from the sorted set
+        @Override
+        public void onSubscribe(String channel, int subscribedChannels) {
+            refresh();
+        }
+
+        @Override
+        public void onMessage(String channel, String message) {
+            if (message.length() < 2) {
+                return;
+            }
+            NodeInfo node = decode(message.substring(1));
+            if (node == null) {
+                return;
+            }
+            if (message.charAt(0) == '+') {
+                addToView(node);
+            } else if (message.charAt(0) == '-') {
+                removeFromView(node);
+            }
+        }
+
+        void stop() {
+            if (isSubscribed()) {
+                unsubscribe();
+            }
+        }
     }
 }
@@ -0,0 +1,142 @@
+package com.example.family;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import family.MessageId;
+import family.NodeInfo;
+import family.StorageServiceGrpc;
+import family.StoredMessage;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
+
+// GET for ids the leader does not hold itself. Asks the first healthy replica, hedges to
+// the next one once the p95 Retrieve latency has passed without an answer, and moves on
+// at once when a replica fails. The first answer wins.
+public class ReplicaReader {
+
+    private static final long RETRIEVE_TIMEOUT_MILLIS = Long.parseLong(
+            System.getenv().getOrDefault("RETRIEVE_TIMEOUT_MS", "1000"));
+    private static final long MIN_HEDGE_MILLIS = 2;
+
+    private final ReplicationCoordinator replication;
+    private final ChannelPool channels;
+    private final FailureDetector detector;
+    private final ScheduledExecutorService scheduler = ExecutionMode.current().newScheduler("hedge-timer");
+    private final LatencyTracker latency = new LatencyTracker(0.95, 20);
+
+    public ReplicaReader(ReplicationCoordinator replication, ChannelPool channels, FailureDetector detector) {
+        this.replication = replication;
+        this.channels = channels;
+        this.detector = detector;
+    }
+
+    // Completes with the text, or null when no replica has the id. When every replica is
+    // suspected nobody was asked, so the id is not known to be missing and the read fails
+    public CompletableFuture<String> read(int id) {
+        List<NodeInfo> replicas = replication.candidatesFor(id);
+        List<NodeInfo> candidates = new ArrayList<>();
+        for (NodeInfo replica : replicas) {
+            if (!detector.isSuspected(replica)) {
+                candidates.add(replica);
+            }
+        }
+
+        CompletableFuture<String> result = new CompletableFuture<>();
+        if (candidates.isEmpty()) {
+            if (replicas.isEmpty()) {
+                result.complete(null);
+            } else {
+                result.completeExceptionally(new IOException(String.format(
+                        "no live replica for %d (%d suspected)", id, replicas.size())));
+            }
+            return result;
+        }
+        new Attempt(id, candidates, result).next();
+        return result;
+    }
+
+    public long getHedgeDelayMillis() {
+        return Math.max(MIN_HEDGE_MILLIS, latency.getMillis());
+    }
+
+    private final class Attempt {
+        private final int id;
+        private final List<NodeInfo> candidates;
+        private final CompletableFuture<String> result;
+        private final AtomicInteger launched = new AtomicInteger();
+        private final AtomicInteger finished = new AtomicInteger();
+        private volatile Throwable lastError;
+
+        Attempt(int id, List<NodeInfo> candidates, CompletableFuture<String> result) {
+            this.id = id;
+            this.candidates = candidates;
+            this.result = result;
+        }
+
+        // Starts the next replica, if any is left and nobody has answered yet
+        void next() {
+            if (result.isDone()) {
+                return;
+            }
+            int index = launched.getAndIncrement();
+            if (index >= candidates.size()) {
+                return;
+            }
+            NodeInfo replica = candidates.get(index);
+            if (index + 1 < candidates.size()) {
+                scheduler.schedule(this::next, getHedgeDelayMillis(), TimeUnit.MILLISECONDS);
+            }
+
+            long started = System.nanoTime();
+            StorageServiceGrpc.newStub(channels.get(replica))
+                    .withDeadlineAfter(RETRIEVE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                    .retrieve(MessageId.newBuilder().setId(id).build(), new StreamObserver<StoredMessage>() {
+                        @Override
+                        public void onNext(StoredMessage value) {
+                            latency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+                            detector.recordSuccess(replica);
+                            result.complete(value.getText());
+                        }
+
+                        @Override
+                        public void onError(Throwable t) {
+                            Status.Code code = t instanceof StatusRuntimeException
+                                    ? ((StatusRuntimeException) t).getStatus().getCode() : Status.Code.UNKNOWN;
+                            if (code == Status.Code.NOT_FOUND) {
+                                detector.recordSuccess(replica);
+                            } else {
+                                lastError = t;
+                                detector.recordFailure(replica);
+                                System.err.printf("[READ] Retrieve %d from %s:%d failed: %s%n",
+                                        id, replica.getHost(), replica.getPort(), code);
+                            }
+                            failed();
+                        }
+
+                        @Override
+                        public void onCompleted() {
+                        }
+                    });
+        }
+
+        // A failed replica does not wait for the hedge timer
+        private void failed() {
+            if (finished.incrementAndGet() == candidates.size()) {
+                if (lastError != null) {
+                    result.completeExceptionally(lastError);
+                } else {
+                    result.complete(null);
+                }
+                return;
+            }
+            next();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.family;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.protobuf.ByteString;
+
+import family.NodeInfo;
+import family.StorageServiceGrpc;
+import family.StoreResult;
+import family.StoredMessage;
+import io.grpc.stub.StreamObserver;
+
+// Leader side of SET: stores locally, sends Store to all chosen replicas at once and
+// answers as soon as the write quorum has acked; the rest finish in the background
+public class ReplicationCoordinator {
+
+    private final ChannelPool channels;
+    private final MessageStore store;
+    private final ToleranceConfig config;
+    // message id -> members that acknowledged a copy
+    private final LocationIndex locations = new LocationIndex(1 << 16);
+    private final ConcurrentMap<NodeInfo, LongAdder> storedCounts = new ConcurrentHashMap<>();
+    private volatile HashRing ring;
+    // Last ring whose distribution report was printed
+    private volatile HashRing reportedRing;
+
+    public ReplicationCoordinator(NodeRegistry registry, ChannelPool channels,
+                                  MessageStore store, ToleranceConfig config) {
+        this.channels = channels;
+        this.store = store;
+        this.config = config;
+        this.ring = new HashRing(registry.view().getPeerSet(), HashRing.DEFAULT_VIRTUAL_NODES);
+        registry.addViewListener((previous, current) -> rebuildRing(current));
+        registry.addRemovalListener(this::reportLostCopies);
+    }
+
+    // Completes once the quorum acked, or exceptionally as soon as it no longer can
+    public CompletableFuture<Void> write(int id, String text) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        ByteString payload = ByteString.copyFromUtf8(text);
+
+        List<NodeInfo> replicas = chooseReplicas(id);
+        int quorum = config.getWriteQuorum();
+        if (replicas.size() < quorum) {
+            result.completeExceptionally(new IllegalStateException(String.format(
+                    "only %d members available, write quorum is %d", replicas.size(), quorum)));
+            return result;
+        }
+
+        try {
+            store.put(id, payload);
+        } catch (IOException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+
+        // Copies from an earlier SET of the same id may be outdated, so only this write's acks
+        // count, including acks of the earlier write that are still on their way
+        int generation = locations.begin(id);
+        StoredMessage message = StoredMessage.newBuilder().setId(id).setTextBytes(payload).build();
+        AtomicInteger acks = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        int tolerableFailures = replicas.size() - quorum;
+
+        for (NodeInfo replica : replicas) {
+            StorageServiceGrpc.newStub(channels.get(replica))
+                    .withDeadlineAfter(config.getStoreTimeoutMillis(), TimeUnit.MILLISECONDS)
+                    .store(message, new StreamObserver<StoreResult>() {
+                        @Override
+                        public void onNext(StoreResult value) {
+                            if (!value.getOk()) {
+                                onError(new IOException(value.getError()));
+                                return;
+                            }
+                            locations.add(id, replica, generation);
+                            storedCounts.computeIfAbsent(replica, k -> new LongAdder()).increment();
+                            if (acks.incrementAndGet() == quorum) {
+                                result.complete(null);
+                            }
+                        }
+
+                        @Override
+                        public void onError(Throwable t) {
+                            System.err.printf("[REPLICA] Store %d on %s:%d failed: %s%n",
+                                    id, replica.getHost(), replica.getPort(), t.getMessage());
+                            if (failures.incrementAndGet() == tolerableFailures + 1) {
+                                result.completeExceptionally(new IOException(String.format(
+                                        "write quorum not reached for %d (%d of %d replicas failed)",
+                                        id, failures.get(), replicas.size())));
+                            }
+                        }
+
+                        @Override
+                        public void onCompleted() {
+                        }
+                    });
+        }
+        return result;
+    }
+
+    // Copies each member has acknowledged since this node became leader
+    public Map<NodeInfo, Long> getStoredCounts() {
+        Map<NodeInfo, Long> counts = new TreeMap<>(
+                Comparator.comparing(NodeInfo::getHost).thenComparingInt(NodeInfo::getPort));
+        storedCounts.forEach((member, count) -> counts.put(member, count.sum()));
+        return counts;
+    }
+
+    public List<NodeInfo> replicasOf(int id) {
+        return locations.get(id);
+    }
+
+    // Where a read should look: the acked replicas if this leader wrote the id, otherwise
+    // where the ring places it, which is where a previous leader sent it too
+    public List<NodeInfo> candidatesFor(int id) {
+        List<NodeInfo> known = locations.get(id);
+        return known.isEmpty() ? chooseReplicas(id) : known;
+    }
+
+    // Distribution of the current ring, once per rebuild; null if it was already reported.
+    // The sample lookups are too slow for the view listener, so the family printer asks
+    public String takeRingReport() {
+        HashRing current = ring;
+        if (current == reportedRing) {
+            return null;
+        }
+        reportedRing = current;
+        return current.distributionReport(config.getTolerance(), 1_000, 9_000, 100_000);
+    }
+
+    public ToleranceConfig getConfig() {
+        return config;
+    }
+
+    // Replicas come from a consistent-hash ring, so a member joining or leaving only moves
+    // the ids next to its points instead of reshuffling everything like id modulo would
+    private List<NodeInfo> chooseReplicas(int id) {
+        return currentRing().replicasFor(id, config.getTolerance());
+    }
+
+    // Rebuilt by the view listener, so the write path only reads the field
+    private HashRing currentRing() {
+        return ring;
+    }
+
+    // Runs on the thread that published the view, so it only builds and swaps the ring
+    private synchronized void rebuildRing(MembershipView view) {
+        Set<NodeInfo> peers = view.getPeerSet();
+        if (ring.getMembers().equals(peers)) {
+            return;
+        }
+        ring = new HashRing(peers, HashRing.DEFAULT_VIRTUAL_NODES);
+        System.out.printf("[RING] Rebuilt for %d members x %d virtual nodes (view epoch %d)%n",
+                peers.size(), HashRing.DEFAULT_VIRTUAL_NODES, view.getEpoch());
+    }
+
+    private void reportLostCopies(NodeInfo member) {
+        int[] ids = locations.idsOn(member);
+        if (ids.length > 0) {
+            System.out.printf("[REPLICA] %s:%d left holding copies of %d messages%n",
+                    member.getHost(), member.getPort(), ids.length);
+        }
+        locations.remove(member);
+    }
+}
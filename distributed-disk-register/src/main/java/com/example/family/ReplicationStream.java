@@ -0,0 +1,160 @@
+package com.example.family;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import family.BatchAck;
+import family.ChatBatch;
+import family.FamilyServiceGrpc;
+import family.NodeInfo;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
+public class ReplicationStream {
+
+    private static final long ACK_TIMEOUT_SECONDS = 5;
+
+    private final NodeInfo target;
+    private final ChannelPool channels;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicLong nextSequence = new AtomicLong();
+    private Connection current;
+    private boolean closed;
+
+    public ReplicationStream(NodeInfo target, ChannelPool channels, ScheduledExecutorService scheduler) {
+        this.target = target;
+        this.channels = channels;
+        this.scheduler = scheduler;
+    }
+
+    public void send(ChatBatch.Builder batch, Runnable onAck, Consumer<Throwable> onFailure) {
+        long sequence = nextSequence.incrementAndGet();
+        PendingAck pending = new PendingAck(onAck, onFailure);
+        Connection connection = null;
+
+        try {
+            synchronized (this) {
+                if (closed) {
+                    throw new IllegalStateException("replication stream closed");
+                }
+                connection = connect();
+                connection.pending.put(sequence, pending);
+                connection.requests.onNext(batch.setSequence(sequence).build());
+            }
+        } catch (Exception e) {
+            if (connection != null) {
+                connection.broken(e);
+            } else {
+                onFailure.accept(e);
+            }
+            return;
+        }
+
+        Connection sentOn = connection;
+        pending.timeout = scheduler.schedule(
+                () -> sentOn.expire(sequence), ACK_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public synchronized void close() {
+        closed = true;
+        if (current != null) {
+            current.requests.onCompleted();
+            current = null;
+        }
+    }
+
+    // Caller holds the lock; a broken stream is replaced on the next send
+    private Connection connect() {
+        if (current == null) {
+            current = new Connection();
+            current.requests = FamilyServiceGrpc.newStub(channels.get(target)).replicationStream(current);
+            System.out.printf("[STREAM] Opened replication stream to %s:%d%n",
+                    target.getHost(), target.getPort());
+        }
+        return current;
+    }
+
+    private static final class PendingAck {
+        private final Runnable onAck;
+        private final Consumer<Throwable> onFailure;
+        private volatile ScheduledFuture<?> timeout;
+
+        private PendingAck(Runnable onAck, Consumer<Throwable> onFailure) {
+            this.onAck = onAck;
+            this.onFailure = onFailure;
+        }
+
+        private void cancelTimeout() {
+            ScheduledFuture<?> t = timeout;
+            if (t != null) {
+                t.cancel(false);
+            }
+        }
+    }
+
+    private final class Connection implements StreamObserver<BatchAck> {
+        private final ConcurrentMap<Long, PendingAck> pending = new ConcurrentHashMap<>();
+        private StreamObserver<ChatBatch> requests;
+
+        @Override
+        public void onNext(BatchAck ack) {
+            PendingAck p = pending.remove(ack.getSequence());
+            if (p != null) {
+                p.cancelTimeout();
+                p.onAck.run();
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            System.err.printf("[STREAM] Replication stream to %s:%d broke: %s%n",
+                    target.getHost(), target.getPort(), t.getMessage());
+            broken(t);
+        }
+
+        @Override
+        public void onCompleted() {
+            broken(new IllegalStateException("replication stream completed by peer"));
+        }
+
+        // The batch will be resent, so the stream it may still be stuck on is cancelled first and
+        // the member drops whatever of it has not been read yet. A copy it did apply is skipped
+        // by message id when the retry arrives on the fresh stream
+        private void expire(long sequence) {
+            if (!pending.containsKey(sequence)) {
+                return;
+            }
+            TimeoutException timeout = new TimeoutException("no ack within " + ACK_TIMEOUT_SECONDS + "s");
+            synchronized (ReplicationStream.this) {
+                if (current == this) {
+                    current = null;
+                    requests.onError(Status.CANCELLED.withDescription(timeout.getMessage()).asRuntimeException());
+                    System.err.printf("[STREAM] Batch %d to %s:%d timed out, resetting the stream%n",
+                            sequence, target.getHost(), target.getPort());
+                }
+            }
+            broken(timeout);
+        }
+
+        private void broken(Throwable t) {
+            synchronized (ReplicationStream.this) {
+                if (current == this) {
+                    current = null;
+                }
+            }
+            for (Long sequence : pending.keySet()) {
+                PendingAck p = pending.remove(sequence);
+                if (p != null) {
+                    p.cancelTimeout();
+                    p.onFailure.accept(t);
+                }
+            }
+        }
+    }
+}
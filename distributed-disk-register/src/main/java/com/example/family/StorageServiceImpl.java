@@ -0,0 +1,59 @@
+package com.example.family;
+
+import java.io.IOException;
+
+import com.google.protobuf.ByteString;
+
+import family.MessageId;
+import family.StorageServiceGrpc;
+import family.StoreResult;
+import family.StoredMessage;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
+public class StorageServiceImpl extends StorageServiceGrpc.StorageServiceImplBase {
+
+    private final MessageStore store;
+
+    public StorageServiceImpl(MessageStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void store(StoredMessage request, StreamObserver<StoreResult> responseObserver) {
+        StoreResult result;
+        try {
+            store.put(request.getId(), request.getTextBytes());
+            result = StoreResult.newBuilder().setOk(true).build();
+        } catch (IOException e) {
+            System.err.printf("[STORE] Failed to store message %d: %s%n", request.getId(), e.getMessage());
+            result = StoreResult.newBuilder().setOk(false).setError(e.getMessage()).build();
+        }
+
+        responseObserver.onNext(result);
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void retrieve(MessageId request, StreamObserver<StoredMessage> responseObserver) {
+        ByteString text;
+        try {
+            text = store.getBytes(request.getId());
+        } catch (IOException e) {
+            responseObserver.onError(Status.INTERNAL.withDescription(e.getMessage()).asRuntimeException());
+            return;
+        }
+        if (text == null) {
+            responseObserver.onError(Status.NOT_FOUND
+                    .withDescription("message " + request.getId() + " not found").asRuntimeException());
+            return;
+        }
+
+        // The text field goes out as the stored bytes, without a round trip through String
+        responseObserver.onNext(StoredMessage.newBuilder()
+                .setId(request.getId())
+                .setTextBytes(text)
+                .build());
+        responseObserver.onCompleted();
+    }
+}
@@ -0,0 +1,429 @@
+package com.example.family;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import family.GossipAck;
+import family.GossipPing;
+import family.GossipServiceGrpc;
+import family.IndirectPing;
+import family.MemberStatus;
+import family.MemberUpdate;
+import family.NodeInfo;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
+// SWIM gossip membership. Every period this node probes one peer, taken round-robin from a
+// shuffled list so each peer is probed within N periods; if the probe goes unanswered, k other
+// peers are asked to try before the peer is marked suspect, and a suspect that does not refute
+// in time is declared dead. Membership changes ride along on pings and acks for about log(N)
+// hops each, so per-node traffic stays constant and a change reaches everyone in O(log N) periods.
+public class SwimRegistry extends NodeRegistry {
+
+    private static final long PERIOD_MILLIS = Long.parseLong(
+            System.getenv().getOrDefault("SWIM_PERIOD_MS", "1000"));
+    private static final long PING_TIMEOUT_MILLIS = Long.parseLong(
+            System.getenv().getOrDefault("SWIM_PING_TIMEOUT_MS", "300"));
+    private static final int INDIRECT_PROBES = Integer.parseInt(
+            System.getenv().getOrDefault("SWIM_INDIRECT_PROBES", "3"));
+    private static final int SUSPICION_MULTIPLIER = 4;
+    private static final int RETRANSMIT_MULTIPLIER = 4;
+    private static final int MAX_PIGGYBACK = 8;
+    // Dead members are remembered this long so late rumours of them being alive are ignored
+    private static final long TOMBSTONE_MILLIS = 60_000;
+
+    private final NodeInfo self;
+    // Guarded by this, like everything below that is not final or volatile
+    private final Map<NodeInfo, Member> members = new HashMap<>();
+    private final Map<NodeInfo, Rumour> rumours = new HashMap<>();
+    private final List<NodeInfo> probeOrder = new ArrayList<>();
+    private final ScheduledExecutorService scheduler = ExecutionMode.current().newScheduler("gossip");
+    private int probeIndex;
+    // Starts at the clock so a restarted node always outranks what is remembered of its last life
+    private long incarnation = System.currentTimeMillis();
+    private volatile ChannelPool channels;
+
+    public SwimRegistry(NodeInfo self) {
+        super(self);
+        this.self = self;
+    }
+
+    public void start(ChannelPool channels) {
+        this.channels = channels;
+        System.out.printf("[CONFIG] Gossip period=%dms pingTimeout=%dms indirectProbes=%d%n",
+                PERIOD_MILLIS, PING_TIMEOUT_MILLIS, INDIRECT_PROBES);
+        scheduler.scheduleWithFixedDelay(this::tick, PERIOD_MILLIS, PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @Override
+    public boolean propagatesJoins() {
+        return true;
+    }
+
+    // Someone reached this node directly, which beats any rumour of its death. A revived member
+    // goes one incarnation above its death, or the DEAD rumour still in flight would win again.
+    @Override
+    public synchronized void add(NodeInfo node) {
+        Member known = members.get(node);
+        if (node.equals(self)) {
+            if (known == null) {
+                change(self, MemberStatus.ALIVE, incarnation);
+            }
+        } else if (known == null || known.status == MemberStatus.DEAD) {
+            change(node, MemberStatus.ALIVE, known == null ? 0 : known.incarnation + 1);
+        }
+    }
+
+    @Override
+    public synchronized void addAll(Collection<NodeInfo> others) {
+        others.forEach(this::add);
+    }
+
+    @Override
+    public synchronized void remove(NodeInfo node) {
+        Member known = members.get(node);
+        if (!node.equals(self) && known != null && known.status != MemberStatus.DEAD) {
+            change(node, MemberStatus.DEAD, known.incarnation);
+        }
+    }
+
+    GossipAck onPing(GossipPing ping) {
+        synchronized (this) {
+            receive(ping.getFrom(), ping.getUpdatesList());
+            return GossipAck.newBuilder()
+                    .setFrom(aliveSelf())
+                    .addAllUpdates(updatesFor(ping.getFrom()))
+                    .build();
+        }
+    }
+
+    // Probes the target on behalf of a peer that could not reach it and relays the target's ack
+    void onPingRequest(IndirectPing request, StreamObserver<GossipAck> responseObserver) {
+        synchronized (this) {
+            receive(request.getPing().getFrom(), request.getPing().getUpdatesList());
+        }
+        ping(request.getTarget(), PING_TIMEOUT_MILLIS, new StreamObserver<GossipAck>() {
+            @Override
+            public void onNext(GossipAck ack) {
+                responseObserver.onNext(ack);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                responseObserver.onError(Status.UNAVAILABLE
+                        .withDescription("No ack from " + describe(request.getTarget()))
+                        .asRuntimeException());
+            }
+
+            @Override
+            public void onCompleted() {
+                responseObserver.onCompleted();
+            }
+        });
+    }
+
+    private void tick() {
+        try {
+            expire();
+            NodeInfo target = nextTarget();
+            if (target != null) {
+                probe(target);
+            }
+        } catch (Exception e) {
+            System.err.println("[GOSSIP] Protocol period failed: " + e.getMessage());
+        }
+    }
+
+    private void probe(NodeInfo target) {
+        ping(target, PING_TIMEOUT_MILLIS, new StreamObserver<GossipAck>() {
+            @Override
+            public void onNext(GossipAck ack) {
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                probeIndirectly(target);
+            }
+
+            @Override
+            public void onCompleted() {
+            }
+        });
+    }
+
+    // The target may only be unreachable from here; let up to k others try within the period
+    private void probeIndirectly(NodeInfo target) {
+        List<NodeInfo> helpers = randomPeers(INDIRECT_PROBES, target);
+        if (helpers.isEmpty()) {
+            suspect(target);
+            return;
+        }
+
+        AtomicBoolean reached = new AtomicBoolean();
+        AtomicInteger failed = new AtomicInteger();
+        long timeout = Math.max(PING_TIMEOUT_MILLIS, PERIOD_MILLIS - PING_TIMEOUT_MILLIS);
+        for (NodeInfo helper : helpers) {
+            IndirectPing request;
+            synchronized (this) {
+                request = IndirectPing.newBuilder().setPing(newPing()).setTarget(target).build();
+            }
+            GossipServiceGrpc.newStub(channels.get(helper))
+                    .withDeadlineAfter(timeout, TimeUnit.MILLISECONDS)
+                    .pingRequest(request, new StreamObserver<GossipAck>() {
+                        @Override
+                        public void onNext(GossipAck ack) {
+                            reached.set(true);
+                            received(ack);
+                        }
+
+                        @Override
+                        public void onError(Throwable t) {
+                            if (failed.incrementAndGet() == helpers.size() && !reached.get()) {
+                                suspect(target);
+                            }
+                        }
+
+                        @Override
+                        public void onCompleted() {
+                        }
+                    });
+        }
+    }
+
+    private void ping(NodeInfo target, long timeoutMillis, StreamObserver<GossipAck> observer) {
+        GossipPing ping;
+        synchronized (this) {
+            ping = newPing();
+        }
+        GossipServiceGrpc.newStub(channels.get(target))
+                .withDeadlineAfter(timeoutMillis, TimeUnit.MILLISECONDS)
+                .ping(ping, new StreamObserver<GossipAck>() {
+                    @Override
+                    public void onNext(GossipAck ack) {
+                        received(ack);
+                        observer.onNext(ack);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        observer.onError(t);
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        observer.onCompleted();
+                    }
+                });
+    }
+
+    private synchronized void received(GossipAck ack) {
+        receive(ack.getFrom(), ack.getUpdatesList());
+    }
+
+    private synchronized void suspect(NodeInfo target) {
+        Member known = members.get(target);
+        if (known != null && known.status == MemberStatus.ALIVE) {
+            change(target, MemberStatus.SUSPECT, known.incarnation);
+        }
+    }
+
+    // Suspects that did not refute in time are dead; old tombstones are dropped
+    private synchronized void expire() {
+        long now = System.currentTimeMillis();
+        long suspicion = (long) (SUSPICION_MULTIPLIER * PERIOD_MILLIS
+                * Math.max(1.0, Math.log10(members.size())));
+        List<NodeInfo> dead = new ArrayList<>();
+        for (Iterator<Map.Entry<NodeInfo, Member>> it = members.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<NodeInfo, Member> e = it.next();
+            Member m = e.getValue();
+            if (m.status == MemberStatus.SUSPECT && now - m.changedAt > suspicion) {
+                dead.add(e.getKey());
+            } else if (m.status == MemberStatus.DEAD && now - m.changedAt > TOMBSTONE_MILLIS) {
+                it.remove();
+            }
+        }
+        for (NodeInfo node : dead) {
+            change(node, MemberStatus.DEAD, members.get(node).incarnation);
+        }
+    }
+
+    private void receive(MemberUpdate from, List<MemberUpdate> updates) {
+        // A message from a member is first-hand proof that it is alive at that incarnation
+        merge(from);
+        for (MemberUpdate update : updates) {
+            merge(update);
+        }
+    }
+
+    // SWIM precedence: a higher incarnation wins; at the same incarnation SUSPECT beats ALIVE;
+    // DEAD beats both unless the member has since moved on to a higher incarnation
+    private void merge(MemberUpdate update) {
+        NodeInfo node = update.getNode();
+        MemberStatus status = update.getStatus();
+        long version = update.getIncarnation();
+
+        if (node.equals(self)) {
+            if (status != MemberStatus.ALIVE && version >= incarnation) {
+                incarnation = version + 1;
+                System.out.printf("[GOSSIP] Refuting %s about myself, incarnation now %d%n", status, incarnation);
+                change(self, MemberStatus.ALIVE, incarnation);
+            }
+            return;
+        }
+
+        Member known = members.get(node);
+        boolean newer;
+        if (known == null) {
+            newer = true;
+        } else {
+            switch (status) {
+                case ALIVE:
+                    newer = version > known.incarnation;
+                    break;
+                case SUSPECT:
+                    newer = known.status == MemberStatus.ALIVE ? version >= known.incarnation
+                            : known.status == MemberStatus.SUSPECT && version > known.incarnation;
+                    break;
+                case DEAD:
+                    newer = known.status != MemberStatus.DEAD && version >= known.incarnation;
+                    break;
+                default:
+                    newer = false;
+            }
+        }
+        if (newer) {
+            change(node, status, version);
+        }
+    }
+
+    private void change(NodeInfo node, MemberStatus status, long version) {
+        Member previous = members.put(node, new Member(status, version, System.currentTimeMillis()));
+        rumours.put(node, new Rumour(MemberUpdate.newBuilder()
+                .setNode(node).setStatus(status).setIncarnation(version).build()));
+        if (previous == null || previous.status != status) {
+            if (!node.equals(self)) {
+                System.out.printf("[GOSSIP] %s is %s (incarnation %d)%n", describe(node), status, version);
+            }
+            publishView();
+        }
+    }
+
+    private void publishView() {
+        List<NodeInfo> live = new ArrayList<>(members.size());
+        members.forEach((node, m) -> {
+            if (m.status != MemberStatus.DEAD) {
+                live.add(node);
+            }
+        });
+        publish(live);
+    }
+
+    private GossipPing newPing() {
+        return GossipPing.newBuilder()
+                .setFrom(aliveSelf())
+                .addAllUpdates(updatesFor(null))
+                .build();
+    }
+
+    private MemberUpdate aliveSelf() {
+        return MemberUpdate.newBuilder()
+                .setNode(self).setStatus(MemberStatus.ALIVE).setIncarnation(incarnation).build();
+    }
+
+    // The least-travelled rumours first; each retires after about log(N) transmissions. A peer
+    // we consider suspect or dead also hears that directly, so it can refute at once
+    private List<MemberUpdate> updatesFor(MemberUpdate recipient) {
+        List<MemberUpdate> updates = new ArrayList<>(MAX_PIGGYBACK + 1);
+        if (recipient != null) {
+            Member known = members.get(recipient.getNode());
+            if (known != null && known.status != MemberStatus.ALIVE
+                    && known.incarnation >= recipient.getIncarnation()) {
+                updates.add(MemberUpdate.newBuilder().setNode(recipient.getNode())
+                        .setStatus(known.status).setIncarnation(known.incarnation).build());
+            }
+        }
+        if (rumours.isEmpty()) {
+            return updates;
+        }
+
+        List<Rumour> pending = new ArrayList<>(rumours.values());
+        pending.sort(Comparator.comparingInt(r -> r.transmits));
+        int limit = RETRANSMIT_MULTIPLIER * (int) Math.ceil(Math.log10(members.size() + 1));
+        for (int i = 0; i < pending.size() && i < MAX_PIGGYBACK; i++) {
+            Rumour rumour = pending.get(i);
+            updates.add(rumour.update);
+            if (++rumour.transmits >= limit) {
+                rumours.remove(rumour.update.getNode());
+            }
+        }
+        return updates;
+    }
+
+    private synchronized NodeInfo nextTarget() {
+        for (int attempts = 0; attempts < 2; attempts++) {
+            while (probeIndex < probeOrder.size()) {
+                NodeInfo candidate = probeOrder.get(probeIndex++);
+                Member m = members.get(candidate);
+                if (m != null && m.status != MemberStatus.DEAD) {
+                    return candidate;
+                }
+            }
+            probeOrder.clear();
+            probeOrder.addAll(view().getPeers());
+            Collections.shuffle(probeOrder, ThreadLocalRandom.current());
+            probeIndex = 0;
+        }
+        return null;
+    }
+
+    private synchronized List<NodeInfo> randomPeers(int count, NodeInfo exclude) {
+        List<NodeInfo> peers = new ArrayList<>();
+        members.forEach((node, m) -> {
+            if (m.status == MemberStatus.ALIVE && !node.equals(self) && !node.equals(exclude)) {
+                peers.add(node);
+            }
+        });
+        Collections.shuffle(peers, ThreadLocalRandom.current());
+        return peers.size() > count ? new ArrayList<>(peers.subList(0, count)) : peers;
+    }
+
+    private static String describe(NodeInfo node) {
+        return node.getHost() + ":" + node.getPort();
+    }
+
+    private static final class Member {
+        final MemberStatus status;
+        final long incarnation;
+        final long changedAt;
+
+        Member(MemberStatus status, long incarnation, long changedAt) {
+            this.status = status;
+            this.incarnation = incarnation;
+            this.changedAt = changedAt;
+        }
+    }
+
+    private static final class Rumour {
+        final MemberUpdate update;
+        int transmits;
+
+        Rumour(MemberUpdate update) {
+            this.update = update;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.example.family;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+
+public class TcpEventLoop implements Runnable {
+
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+    private static final long SELECT_TIMEOUT_MILLIS = 50;
+
+    private final Selector selector;
+    private final Queue<SocketChannel> registrations = new ConcurrentLinkedQueue<>();
+    // Connections whose oldest pending reply has just completed on another thread
+    private final Queue<SelectionKey> repliesReady = new ConcurrentLinkedQueue<>();
+    // Connections holding framed lines that arrived while members were behind; loop thread only
+    private final Queue<SelectionKey> holding = new ArrayDeque<>();
+    // One direct buffer per loop, reused for every read on every connection of this loop
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_BYTES);
+    private final Function<String, CompletableFuture<String>> lineHandler;
+    private final BroadcastQueue queue;
+    private final Thread thread;
+    private volatile boolean running = true;
+    private boolean readsPaused;
+
+    public TcpEventLoop(String name, Function<String, CompletableFuture<String>> lineHandler,
+                        BroadcastQueue queue) throws IOException {
+        this.selector = Selector.open();
+        this.lineHandler = lineHandler;
+        this.queue = queue;
+        this.thread = new Thread(this, name);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public void register(SocketChannel channel) {
+        registrations.add(channel);
+        selector.wakeup();
+    }
+
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select(SELECT_TIMEOUT_MILLIS);
+                registerPending();
+                applyBackpressure();
+                releaseHeld();
+                writeReadyReplies();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid() && key.isWritable()) {
+                        flush(key);
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        read(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("TCP event loop error: " + e.getMessage());
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void registerPending() {
+        SocketChannel channel;
+        while ((channel = registrations.poll()) != null) {
+            try {
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(selector, readsPaused ? 0 : SelectionKey.OP_READ);
+                key.attach(new Connection(key));
+            } catch (IOException e) {
+                System.err.println("Failed to register TCP client: " + e.getMessage());
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    // Stop reading while members are behind, so the kernel buffers fill and TCP pushes back on clients
+    private void applyBackpressure() {
+        boolean overloaded = queue.isOverloaded();
+        if (overloaded == readsPaused) {
+            return;
+        }
+        readsPaused = overloaded;
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid()) {
+                updateInterest(key);
+            }
+        }
+    }
+
+    // Hands held lines on once members have caught up; never waits for them to
+    private void releaseHeld() {
+        while (!holding.isEmpty() && !queue.isOverloaded()) {
+            SelectionKey key = holding.peek();
+            Connection connection = (Connection) key.attachment();
+            if (key.isValid() && !connection.release()) {
+                return;
+            }
+            holding.poll();
+            if (key.isValid()) {
+                flush(key);
+            }
+        }
+    }
+
+    private void read(SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+
+        try {
+            readBuffer.clear();
+            int n = channel.read(readBuffer);
+            if (n < 0) {
+                // The client may half-close after its last command; answer it before closing
+                connection.framer.finish(connection::handle);
+                connection.inputClosed = true;
+                flush(key);
+                return;
+            }
+            readBuffer.flip();
+            if (!connection.framer.feed(readBuffer, connection::handle)) {
+                System.err.println("TCP client sent a line longer than " + LineFramer.MAX_LINE_BYTES + " bytes, closing");
+                close(key);
+                return;
+            }
+            flush(key);
+        } catch (IOException e) {
+            System.err.println("TCP client handler error: " + e.getMessage());
+            close(key);
+        }
+    }
+
+    private void writeReadyReplies() {
+        SelectionKey key;
+        while ((key = repliesReady.poll()) != null) {
+            if (key.isValid()) {
+                flush(key);
+            }
+        }
+    }
+
+    private void flush(SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+        try {
+            connection.flush((SocketChannel) key.channel());
+        } catch (IOException e) {
+            System.err.println("TCP client handler error: " + e.getMessage());
+            close(key);
+            return;
+        }
+        if (connection.inputClosed && connection.held.isEmpty()
+                && connection.replies.isEmpty() && connection.unwritten == null) {
+            close(key);
+            return;
+        }
+        updateInterest(key);
+    }
+
+    // Replies go out in request order. A reply that did not fit into the socket buffer waits for
+    // OP_WRITE, and a client with replies or held lines outstanding is not read from until they clear.
+    private void updateInterest(SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+        if (connection.unwritten != null) {
+            key.interestOps(SelectionKey.OP_WRITE);
+        } else if (!connection.replies.isEmpty() || !connection.held.isEmpty() || connection.inputClosed) {
+            key.interestOps(0);
+        } else {
+            key.interestOps(readsPaused ? 0 : SelectionKey.OP_READ);
+        }
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        closeQuietly((SocketChannel) key.channel());
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            closeQuietly((SocketChannel) key.channel());
+        }
+        SocketChannel pending;
+        while ((pending = registrations.poll()) != null) {
+            closeQuietly(pending);
+        }
+        try {
+            selector.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private final class Connection {
+        private final SelectionKey key;
+        private final LineFramer framer = new LineFramer(LineFramer.MAX_LINE_BYTES);
+        private final ArrayDeque<CompletableFuture<String>> replies = new ArrayDeque<>();
+        // At most one read buffer of lines, since the connection is not read again until they go
+        private final ArrayDeque<String> held = new ArrayDeque<>();
+        private ByteBuffer unwritten;
+        private boolean inputClosed;
+
+        private Connection(SelectionKey key) {
+            this.key = key;
+        }
+
+        // A line that finds a member's queue full is refused with ERROR busy, since the selector
+        // thread never waits for room; so once members fall behind, the rest of the read is held
+        private void handle(String line) {
+            if (!held.isEmpty() || queue.isOverloaded()) {
+                if (held.isEmpty()) {
+                    holding.add(key);
+                }
+                held.add(line);
+                return;
+            }
+            dispatch(line);
+        }
+
+        // Returns true once every held line has been handed on
+        private boolean release() {
+            String line;
+            while ((line = held.peek()) != null) {
+                if (queue.isOverloaded()) {
+                    return false;
+                }
+                held.poll();
+                dispatch(line);
+            }
+            return true;
+        }
+
+        private void dispatch(String line) {
+            CompletableFuture<String> reply = lineHandler.apply(line);
+            if (reply == null) {
+                return;
+            }
+            replies.add(reply);
+            if (!reply.isDone()) {
+                reply.whenComplete((value, error) -> {
+                    repliesReady.add(key);
+                    selector.wakeup();
+                });
+            }
+        }
+
+        private void flush(SocketChannel channel) throws IOException {
+            while (true) {
+                if (unwritten != null) {
+                    channel.write(unwritten);
+                    if (unwritten.hasRemaining()) {
+                        return;
+                    }
+                    unwritten = null;
+                }
+                CompletableFuture<String> head = replies.peek();
+                if (head == null || !head.isDone()) {
+                    return;
+                }
+                replies.poll();
+                String reply = head.isCompletedExceptionally() ? "ERROR internal error" : head.join();
+                unwritten = ByteBuffer.wrap((reply + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
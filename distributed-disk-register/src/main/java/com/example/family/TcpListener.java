@@ -1,10 +1,19 @@
 package com.example.family;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import family.ChatMessage;
@@ -12,17 +21,41 @@ import family.NodeInfo;
 
 public class TcpListener {
 
+    private static final int TCP_PORT = 6666;
+    private static final long BIND_RETRY_MILLIS = 1000;
+    private static final int EVENT_LOOPS = Integer.parseInt(System.getenv().getOrDefault(
+            "TCP_EVENT_LOOPS",
+            String.valueOf(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)))
+    ));
+    private static final int STORE_IO_THREADS = Integer.parseInt(System.getenv().getOrDefault(
+            "STORE_IO_THREADS", "4"));
+
     private final NodeRegistry registry;
     private final NodeInfo self;
     private final BroadcastQueue queue;
+    private final MessageStore store;
+    private final ReplicationCoordinator replication;
+    private final ReplicaReader reader;
+    private final ReadCache cache;
+    private final MultiLeaderStore chatStore;
+    // Disk reads and writes for GET and SET, kept off the event loops. An id always maps to the
+    // same single thread, so commands on one id still run in the order they arrived. Started
+    // and shut down with the listener, which runs again whenever this node regains leadership.
+    private volatile ExecutorService[] storeIo;
     private final AtomicBoolean running = new AtomicBoolean(false);
-    private ServerSocket serverSocket;
-    private Thread listenerThread;
+    private Acceptor acceptor;
 
-    public TcpListener(NodeRegistry registry, NodeInfo self, BroadcastQueue queue) {
+    public TcpListener(NodeRegistry registry, NodeInfo self, BroadcastQueue queue,
+                       MessageStore store, ReplicationCoordinator replication, ReplicaReader reader,
+                       ReadCache cache, MultiLeaderStore chatStore) {
         this.registry = registry;
         this.self = self;
         this.queue = queue;
+        this.store = store;
+        this.replication = replication;
+        this.reader = reader;
+        this.cache = cache;
+        this.chatStore = chatStore;
     }
 
     public boolean isRunning() {
@@ -36,29 +69,13 @@ public class TcpListener {
         }
 
         running.set(true);
-        listenerThread = new Thread(() -> {
-            try {
-                serverSocket = new ServerSocket(6666);
-                System.out.printf("Leader listening for text on TCP %s:%d%n", self.getHost(), 6666);
-
-                while (running.get()) {
-                    try {
-                        Socket client = serverSocket.accept();
-                        new Thread(() -> handleClient(client)).start();
-                    } catch (IOException e) {
-                        if (running.get()) {
-                            System.err.println("Error accepting client: " + e.getMessage());
-                        }
-                    }
-                }
-            } catch (IOException e) {
-                if (running.get()) {
-                    System.err.println("Error in TCP listener: " + e.getMessage());
-                }
-            }
-        }, "TcpListener");
-
-        listenerThread.start();
+        ExecutorService[] io = new ExecutorService[STORE_IO_THREADS];
+        for (int i = 0; i < io.length; i++) {
+            io[i] = Executors.newSingleThreadExecutor(ExecutionMode.current().threadFactory("store-io-" + i));
+        }
+        storeIo = io;
+        acceptor = new Acceptor();
+        new Thread(acceptor, "TcpListener").start();
     }
 
     public synchronized void stop() {
@@ -67,66 +84,282 @@ public class TcpListener {
         }
 
         running.set(false);
+        if (acceptor != null) {
+            acceptor.shutdown();
+            acceptor = null;
+        }
+        // Commands already queued still finish, so no accepted SET is cut off halfway
+        for (ExecutorService io : storeIo) {
+            io.shutdown();
+        }
+
+        System.out.println("TCP listener stopped");
+    }
+
+    // Returns the eventual reply for the client, or null when the line needs none. Only the
+    // virtual-thread connections may block; the event loops pass mayBlock=false.
+    private CompletableFuture<String> handleLine(String line, boolean mayBlock) {
+        String text = line.trim();
+        if (text.isEmpty()) {
+            return null;
+        }
 
+        Command command;
         try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
-            }
-        } catch (IOException e) {
-            System.err.println("Error closing server socket: " + e.getMessage());
+            command = Command.parse(text);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture("ERROR " + e.getMessage());
+        }
+        if (command != null) {
+            return execute(command);
         }
 
-        if (listenerThread != null) {
-            listenerThread.interrupt();
+        System.out.println("Received from TCP: " + text);
+        if (!mayBlock) {
+            return acceptWithoutWaiting(text);
         }
 
-        System.out.println("TCP listener stopped");
+        ChatLogger.logMessage(self.getHost(), self.getPort(), text);
+
+        // Versioned first, so members store it under the same clock and origin
+        broadcastToFamily(chatStore.storeLocal(newMessage(text)).toProto());
+        return null;
     }
 
-    private void handleClient(Socket client) {
-        System.out.println("New TCP client connected: " + client.getRemoteSocketAddress());
-        try (BufferedReader reader = new BufferedReader(
-                new InputStreamReader(client.getInputStream()))) {
+    // Every member's queue slot and the log entry are claimed up front without waiting; if any
+    // is missing the line is refused whole, before it is stored or sent anywhere
+    private CompletableFuture<String> acceptWithoutWaiting(String text) {
+        BroadcastQueue.Reservation reservation = queue.tryReserve(registry.view());
+        if (reservation == null) {
+            return CompletableFuture.completedFuture("ERROR busy");
+        }
+        if (!ChatLogger.tryLogMessage(self.getHost(), self.getPort(), text)) {
+            reservation.cancel();
+            return CompletableFuture.completedFuture("ERROR busy");
+        }
+        reservation.submit(chatStore.storeLocal(newMessage(text)).toProto(), self);
+        return null;
+    }
 
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String text = line.trim();
-                if (text.isEmpty()) continue;
+    private ChatMessage newMessage(String text) {
+        return ChatMessage.newBuilder()
+                .setText(text)
+                .setFromHost(self.getHost())
+                .setFromPort(self.getPort())
+                .setTimestamp(System.currentTimeMillis())
+                .build();
+    }
 
-                long ts = System.currentTimeMillis();
+    private CompletableFuture<String> execute(Command command) {
+        try {
+            return submit(command);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture("ERROR listener stopped");
+        }
+    }
 
-                System.out.println("Received from TCP: " + text);
+    private CompletableFuture<String> submit(Command command) {
+        if (command instanceof SetCommand) {
+            SetCommand set = (SetCommand) command;
+            cache.invalidate(set.getId());
+            return CompletableFuture.supplyAsync(() -> replication.write(set.getId(), set.getMessage()),
+                            storeIoFor(set.getId()))
+                    .thenCompose(write -> write)
+                    .handle((ignored, e) -> e == null ? "OK" : "ERROR " + rootMessage(e));
+        }
+        int id = ((GetCommand) command).getId();
+        return CompletableFuture.supplyAsync(() -> readLocal(id), storeIoFor(id))
+                .thenCompose(message -> message != null ? CompletableFuture.completedFuture(message) : readRemote(id))
+                .handle((text, e) -> e != null ? "ERROR " + rootMessage(e) : text != null ? text : "NOT_FOUND");
+    }
 
-                ChatLogger.logMessage(self.getHost(), self.getPort(), text);
+    private String readLocal(int id) {
+        try {
+            return store.get(id);
+        } catch (IOException e) {
+            System.err.println("[STORE] " + e.getMessage());
+            return null;
+        }
+    }
 
-                ChatMessage msg = ChatMessage.newBuilder()
-                        .setText(text)
-                        .setFromHost(self.getHost())
-                        .setFromPort(self.getPort())
-                        .setTimestamp(ts)
-                        .build();
+    private ExecutorService storeIoFor(int id) {
+        return storeIo[Math.floorMod(id, storeIo.length)];
+    }
 
-                broadcastToFamily(msg);
+    // Hot ids held only by members are served from the leader's cache instead of another Retrieve
+    private CompletableFuture<String> readRemote(int id) {
+        if (!cache.isEnabled()) {
+            return reader.read(id);
+        }
+        String cached = cache.get(id);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        long stamp = cache.stamp();
+        return reader.read(id).thenApply(text -> {
+            if (text != null) {
+                cache.put(id, text, stamp);
             }
+            return text;
+        });
+    }
 
-        } catch (IOException e) {
-            System.err.println("TCP client handler error: " + e.getMessage());
-        } finally {
-            try {
-                client.close();
-            } catch (IOException ignored) {
-            }
+    private static String rootMessage(Throwable e) {
+        while (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
         }
+        return e.getMessage();
     }
 
     private void broadcastToFamily(ChatMessage msg) {
-        for (NodeInfo n : registry.snapshot()) {
-            if (n.getHost().equals(self.getHost()) && n.getPort() == self.getPort()) {
-                continue;
-            }
-
+        MembershipView view = registry.view();
+        for (int i = 0; i < view.peerCount(); i++) {
+            NodeInfo n = view.peer(i);
             queue.enqueue(n, msg, self);
             System.out.printf("Enqueued message for %s:%d%n", n.getHost(), n.getPort());
         }
     }
+
+    // Owns the listening socket and hands accepted connections to the event loops round-robin,
+    // or to one virtual thread each when the node runs in virtual-thread mode
+    private final class Acceptor implements Runnable {
+        private final ExecutionMode mode = ExecutionMode.current();
+        private final TcpEventLoop[] loops = new TcpEventLoop[mode.isVirtual() ? 0 : EVENT_LOOPS];
+        private final Set<SocketChannel> blockingClients = ConcurrentHashMap.newKeySet();
+        private volatile boolean active = true;
+        private volatile Selector selector;
+        private Thread thread;
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            ServerSocketChannel serverChannel = null;
+            try {
+                serverChannel = bind();
+                if (serverChannel == null) {
+                    return;
+                }
+                if (mode.isVirtual()) {
+                    acceptBlocking(serverChannel);
+                    return;
+                }
+                serverChannel.configureBlocking(false);
+
+                for (int i = 0; i < loops.length; i++) {
+                    loops[i] = new TcpEventLoop("TcpEventLoop-" + i, line -> handleLine(line, false), queue);
+                    loops[i].start();
+                }
+
+                selector = Selector.open();
+                serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+                System.out.printf("Leader listening for text on TCP %s:%d (%d event loops)%n",
+                        self.getHost(), TCP_PORT, loops.length);
+
+                int next = 0;
+                while (active) {
+                    selector.select();
+                    selector.selectedKeys().clear();
+
+                    SocketChannel client;
+                    while ((client = serverChannel.accept()) != null) {
+                        client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                        System.out.println("New TCP client connected: " + client.getRemoteAddress());
+                        loops[next++ % loops.length].register(client);
+                    }
+                }
+            } catch (IOException e) {
+                if (active) {
+                    System.err.println("Error in TCP listener: " + e.getMessage());
+                }
+            } finally {
+                for (TcpEventLoop loop : loops) {
+                    if (loop != null) {
+                        loop.shutdown();
+                    }
+                }
+                for (SocketChannel client : blockingClients) {
+                    try {
+                        client.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+                closeQuietly(serverChannel);
+                if (selector != null) {
+                    try {
+                        selector.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+
+        private void acceptBlocking(ServerSocketChannel serverChannel) throws IOException {
+            System.out.printf("Leader listening for text on TCP %s:%d (virtual threads)%n",
+                    self.getHost(), TCP_PORT);
+
+            while (active) {
+                SocketChannel client = serverChannel.accept();
+                client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                System.out.println("New TCP client connected: " + client.getRemoteAddress());
+
+                blockingClients.add(client);
+                BlockingTcpConnection connection =
+                        new BlockingTcpConnection(client, line -> handleLine(line, true), queue);
+                mode.newThread("tcp-client", () -> {
+                    try {
+                        connection.run();
+                    } finally {
+                        blockingClients.remove(client);
+                    }
+                }).start();
+            }
+        }
+
+        // The previous leader may still hold the port for a moment, so keep retrying until stopped
+        private ServerSocketChannel bind() {
+            boolean reported = false;
+            while (active) {
+                ServerSocketChannel channel = null;
+                try {
+                    channel = ServerSocketChannel.open();
+                    channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                    channel.bind(new InetSocketAddress(TCP_PORT));
+                    return channel;
+                } catch (IOException e) {
+                    closeQuietly(channel);
+                    if (!reported) {
+                        System.err.println("Error in TCP listener: " + e.getMessage() + ", retrying");
+                        reported = true;
+                    }
+                    try {
+                        Thread.sleep(BIND_RETRY_MILLIS);
+                    } catch (InterruptedException ie) {
+                        return null;
+                    }
+                }
+            }
+            return null;
+        }
+
+        private void shutdown() {
+            active = false;
+            Selector s = selector;
+            if (s != null) {
+                s.wakeup();
+            }
+            Thread t = thread;
+            if (t != null) {
+                t.interrupt();
+            }
+        }
+
+        private void closeQuietly(ServerSocketChannel channel) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,70 @@
+package com.example.family;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+public class ToleranceConfig {
+
+    private static final int MIN_TOLERANCE = 1;
+    private static final int MAX_TOLERANCE = 7;
+
+    private final int tolerance;
+    private final int writeQuorum;
+    private final long storeTimeoutMillis;
+
+    public ToleranceConfig(int tolerance, int writeQuorum, long storeTimeoutMillis) {
+        this.tolerance = Math.max(MIN_TOLERANCE, Math.min(MAX_TOLERANCE, tolerance));
+        this.writeQuorum = Math.max(1, Math.min(this.tolerance, writeQuorum));
+        this.storeTimeoutMillis = storeTimeoutMillis;
+    }
+
+    // tolerance.conf holds TOLERANCE=<1..7> and optionally WRITE_QUORUM=<acks>, which defaults
+    // to every replica; TOLERANCE_CONF points elsewhere and STORE_TIMEOUT_MS bounds each Store
+    public static ToleranceConfig load() {
+        Path file = Paths.get(System.getenv().getOrDefault("TOLERANCE_CONF", "tolerance.conf"));
+        int tolerance = MIN_TOLERANCE;
+        Integer quorum = null;
+
+        try {
+            List<String> lines = Files.readAllLines(file);
+            for (String line : lines) {
+                String[] kv = line.trim().split("\\s*=\\s*", 2);
+                if (kv.length != 2) {
+                    continue;
+                }
+                if (kv[0].equalsIgnoreCase("TOLERANCE")) {
+                    tolerance = Integer.parseInt(kv[1]);
+                } else if (kv[0].equalsIgnoreCase("WRITE_QUORUM")) {
+                    quorum = Integer.parseInt(kv[1]);
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("[CONFIG] Could not read " + file + " (" + e.getMessage()
+                    + "), using TOLERANCE=" + MIN_TOLERANCE);
+        }
+
+        return new ToleranceConfig(tolerance, quorum != null ? quorum : tolerance,
+                Long.parseLong(System.getenv().getOrDefault("STORE_TIMEOUT_MS", "2000")));
+    }
+
+    public int getTolerance() {
+        return tolerance;
+    }
+
+    public int getWriteQuorum() {
+        return writeQuorum;
+    }
+
+    public long getStoreTimeoutMillis() {
+        return storeTimeoutMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("tolerance=%d writeQuorum=%d storeTimeout=%dms",
+                tolerance, writeQuorum, storeTimeoutMillis);
+    }
+}
@@ -1,101 +1,152 @@
 package com.example.family;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
+// Counters indexed by NodeIds slot. Missing trailing slots count as zero, so clocks of
+// different lengths compare and merge without padding; compare, merge and copy are plain
+// array loops with no boxing or hashing.
 public class VectorClock {
-    
-    private final Map<String, Long> clocks;
-    
+
+    private static final int EQUAL = 0;
+    private static final int BEFORE = 1;
+    private static final int AFTER = 2;
+    private static final int CONCURRENT = 3;
+
+    private long[] counters;
+
     public VectorClock() {
-        this.clocks = new HashMap<>();
+        this.counters = new long[0];
     }
-    
+
+    // Reads the id-keyed form carried in ChatMessage.vectorClock
     public VectorClock(Map<String, Long> clocks) {
-        this.clocks = new HashMap<>(clocks);
+        this.counters = new long[0];
+        for (Map.Entry<String, Long> entry : clocks.entrySet()) {
+            int slot = NodeIds.slot(entry.getKey());
+            ensure(slot);
+            counters[slot] = Math.max(counters[slot], entry.getValue());
+        }
     }
-    
+
+    private VectorClock(long[] counters) {
+        this.counters = counters;
+    }
+
     public void increment(String nodeId) {
-        clocks.put(nodeId, clocks.getOrDefault(nodeId, 0L) + 1);
+        increment(NodeIds.slot(nodeId));
+    }
+
+    public void increment(int slot) {
+        ensure(slot);
+        counters[slot]++;
     }
-    
+
     public void merge(VectorClock other) {
-        for (Map.Entry<String, Long> entry : other.clocks.entrySet()) {
-            String nodeId = entry.getKey();
-            Long otherValue = entry.getValue();
-            clocks.put(nodeId, Math.max(clocks.getOrDefault(nodeId, 0L), otherValue));
+        long[] theirs = other.counters;
+        if (theirs.length > counters.length) {
+            counters = Arrays.copyOf(counters, theirs.length);
+        }
+        long[] mine = counters;
+        for (int i = 0; i < theirs.length; i++) {
+            mine[i] = Math.max(mine[i], theirs[i]);
         }
     }
-    
+
     public boolean happenedBefore(VectorClock other) {
-        boolean anyLess = false;
-        
-        for (Map.Entry<String, Long> entry : clocks.entrySet()) {
-            String nodeId = entry.getKey();
-            Long thisValue = entry.getValue();
-            Long otherValue = other.clocks.getOrDefault(nodeId, 0L);
-            
-            if (thisValue > otherValue) {
-                return false;
-            }
-            if (thisValue < otherValue) {
-                anyLess = true;
-            }
-        }
-        
-        for (Map.Entry<String, Long> entry : other.clocks.entrySet()) {
-            String nodeId = entry.getKey();
-            if (!clocks.containsKey(nodeId) && entry.getValue() > 0) {
-                anyLess = true;
-            }
-        }
-        
-        return anyLess;
+        return compare(counters, other.counters) == BEFORE;
     }
-    
+
     public boolean happenedAfter(VectorClock other) {
-        return other.happenedBefore(this);
+        return compare(counters, other.counters) == AFTER;
     }
-    
+
     public boolean isConcurrentWith(VectorClock other) {
-        return !happenedBefore(other) && !happenedAfter(other);
+        int order = compare(counters, other.counters);
+        return order == CONCURRENT || order == EQUAL;
     }
-    
+
     public long get(String nodeId) {
-        return clocks.getOrDefault(nodeId, 0L);
+        int slot = NodeIds.slot(nodeId);
+        return slot < counters.length ? counters[slot] : 0;
     }
-    
+
+    // The id-keyed form for ChatMessage.vectorClock; zero counters are left out
     public Map<String, Long> getClocks() {
-        return new HashMap<>(clocks);
+        Map<String, Long> clocks = new HashMap<>();
+        for (int i = 0; i < counters.length; i++) {
+            if (counters[i] != 0) {
+                clocks.put(NodeIds.name(i), counters[i]);
+            }
+        }
+        return clocks;
     }
-    
+
     public VectorClock copy() {
-        return new VectorClock(this.clocks);
+        return new VectorClock(counters.clone());
     }
-    
+
+    // One pass over the common prefix; the flags are or-ed rather than branched on
+    private static int compare(long[] a, long[] b) {
+        int common = Math.min(a.length, b.length);
+        boolean less = false;
+        boolean greater = false;
+        for (int i = 0; i < common; i++) {
+            less |= a[i] < b[i];
+            greater |= a[i] > b[i];
+        }
+        for (int i = common; i < a.length; i++) {
+            greater |= a[i] > 0;
+        }
+        for (int i = common; i < b.length; i++) {
+            less |= b[i] > 0;
+        }
+        if (less) {
+            return greater ? CONCURRENT : BEFORE;
+        }
+        return greater ? AFTER : EQUAL;
+    }
+
+    private void ensure(int slot) {
+        if (slot >= counters.length) {
+            counters = Arrays.copyOf(counters, Math.max(slot + 1, NodeIds.size()));
+        }
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder("{");
         boolean first = true;
-        for (Map.Entry<String, Long> entry : clocks.entrySet()) {
+        for (int i = 0; i < counters.length; i++) {
+            if (counters[i] == 0) continue;
             if (!first) sb.append(", ");
-            sb.append(entry.getKey()).append(":").append(entry.getValue());
+            sb.append(NodeIds.name(i)).append(":").append(counters[i]);
             first = false;
         }
         sb.append("}");
         return sb.toString();
     }
-    
+
     @Override
     public boolean equals(Object obj) {
         if (this == obj) return true;
         if (!(obj instanceof VectorClock)) return false;
         VectorClock other = (VectorClock) obj;
-        return clocks.equals(other.clocks);
+        return compare(counters, other.counters) == EQUAL;
     }
-    
+
+    // Ignores trailing zeros so it agrees with equals
     @Override
     public int hashCode() {
-        return clocks.hashCode();
+        int end = counters.length;
+        while (end > 0 && counters[end - 1] == 0) {
+            end--;
+        }
+        int hash = 1;
+        for (int i = 0; i < end; i++) {
+            hash = 31 * hash + Long.hashCode(counters[i]);
+        }
+        return hash;
     }
 }
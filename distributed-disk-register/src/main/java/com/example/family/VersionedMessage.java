@@ -1,5 +1,8 @@
 package com.example.family;
 
+import java.util.Map;
+import java.util.TreeMap;
+
 import family.ChatMessage;
 
 public class VersionedMessage {
@@ -7,11 +10,40 @@ public class VersionedMessage {
     private final ChatMessage message;
     private final VectorClock vectorClock;
     private final String originNodeId;
+    private final long originEpoch;
+    private final String messageId;
+    private final long digest;
     
+    // For messages from an origin that does not stamp its process epoch
     public VersionedMessage(ChatMessage message, VectorClock vectorClock, String originNodeId) {
+        this(message, vectorClock, originNodeId, 0);
+    }
+    
+    public VersionedMessage(ChatMessage message, VectorClock vectorClock, String originNodeId, long originEpoch) {
         this.message = message;
         this.vectorClock = vectorClock;
         this.originNodeId = originNodeId;
+        this.originEpoch = originEpoch;
+        this.messageId = computeMessageId();
+        this.digest = computeDigest();
+    }
+    
+    // Reads a message as replicated; one sent without an origin is attributed to its sender
+    public static VersionedMessage fromProto(ChatMessage message) {
+        String origin = message.getOriginNodeId().isEmpty()
+                ? message.getFromHost() + ":" + message.getFromPort()
+                : message.getOriginNodeId();
+        return new VersionedMessage(message, new VectorClock(message.getVectorClockMap()), origin,
+                message.getOriginEpoch());
+    }
+    
+    public ChatMessage toProto() {
+        return message.toBuilder()
+                .clearVectorClock()
+                .putAllVectorClock(vectorClock.getClocks())
+                .setOriginNodeId(originNodeId)
+                .setOriginEpoch(originEpoch)
+                .build();
     }
     
     public ChatMessage getMessage() {
@@ -26,6 +58,48 @@ public class VersionedMessage {
         return originNodeId;
     }
     
+    public long getOriginEpoch() {
+        return originEpoch;
+    }
+    
+    // The origin's own counter at the time it stored the message, which one origin process never
+    // hands out twice. The chat store lives in memory, so a restarted origin counts from 1 again;
+    // its process epoch keeps those ids apart from the ones its peers still hold from before.
+    // A message without a clock falls back to its sender and send time.
+    public String getMessageId() {
+        return messageId;
+    }
+    
+    private String computeMessageId() {
+        long sequence = vectorClock.get(originNodeId);
+        if (sequence > 0) {
+            return originEpoch == 0 ? originNodeId + "#" + sequence
+                    : originNodeId + "@" + originEpoch + "#" + sequence;
+        }
+        return message.getFromHost() + ":" + message.getFromPort() + ":" + message.getTimestamp();
+    }
+    
+    // Same on every node that holds this exact version; never 0, which MerkleTree reserves
+    public long digest() {
+        return digest;
+    }
+    
+    private long computeDigest() {
+        long hash = MerkleTree.fnv(message.getFromHost());
+        hash = MerkleTree.mix(hash * 31 + message.getFromPort());
+        hash = MerkleTree.mix(hash * 31 + message.getTimestamp());
+        hash = MerkleTree.mix(hash * 31 + MerkleTree.fnv(message.getText()));
+        hash = MerkleTree.mix(hash * 31 + MerkleTree.fnv(originNodeId));
+        hash = MerkleTree.mix(hash * 31 + originEpoch);
+        // Clock slots differ between nodes, so hash the entries by node id
+        for (Map.Entry<String, Long> entry : new TreeMap<>(vectorClock.getClocks()).entrySet()) {
+            hash = MerkleTree.mix(hash * 31 + MerkleTree.fnv(entry.getKey()));
+            hash = MerkleTree.mix(hash * 31 + entry.getValue());
+        }
+        return hash != 0 ? hash : 1;
+    }
+    
+    // Gives the same answer in either argument order, so every replica keeps the same version
     public static VersionedMessage resolveConflict(VersionedMessage msg1, VersionedMessage msg2) {
         VectorClock clock1 = msg1.getVectorClock();
         VectorClock clock2 = msg2.getVectorClock();
@@ -48,8 +122,14 @@ public class VersionedMessage {
             return ts1 > ts2 ? msg1 : msg2;
         }
         
-        System.out.println("[CONFLICT] Resolved: using nodeId tie-breaker");
-        return msg1.getOriginNodeId().compareTo(msg2.getOriginNodeId()) > 0 ? msg1 : msg2;
+        int byOrigin = msg1.getOriginNodeId().compareTo(msg2.getOriginNodeId());
+        if (byOrigin != 0) {
+            System.out.println("[CONFLICT] Resolved: using nodeId tie-breaker");
+            return byOrigin > 0 ? msg1 : msg2;
+        }
+        
+        System.out.println("[CONFLICT] Resolved: using digest tie-breaker");
+        return Long.compareUnsigned(msg1.digest(), msg2.digest()) >= 0 ? msg1 : msg2;
     }
     
     @Override
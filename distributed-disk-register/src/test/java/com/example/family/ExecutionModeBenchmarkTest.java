@@ -0,0 +1,74 @@
+package com.example.family;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+// Rough benchmark of the two execution modes on the work they exist for: many tasks that each
+// block for a while, like a TCP client waiting on a reply or a send waiting on its member. The
+// platform side runs them on a fixed pool and on a thread per task, the way the node did before
+// EXECUTION_MODE; the virtual side on one virtual thread per task, which needs JDK 21+.
+// Timings are printed, not asserted; every task having run is.
+class ExecutionModeBenchmarkTest {
+
+    private static final int TASKS = 1_000;
+    private static final long BLOCK_MILLIS = 10;
+    private static final int POOL_THREADS = 16;
+
+    @Test
+    void comparesPlatformAndVirtualThreadsOnBlockingTasks() throws Exception {
+        ExecutionMode platform = ExecutionMode.of(false);
+
+        ExecutorService pool = Executors.newFixedThreadPool(POOL_THREADS, platform.threadFactory("bench-pool"));
+        try {
+            measure("platform pool of " + POOL_THREADS, pool);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        measure("platform thread per task", task -> platform.newThread("bench-thread", task).start());
+
+        if (Runtime.version().feature() < 21) {
+            System.out.printf("[BENCH] virtual thread per task skipped, JDK %s has no virtual threads%n",
+                    Runtime.version());
+            return;
+        }
+        ExecutorService virtual = ExecutionMode.of(true).newTaskExecutor("bench-virtual");
+        try {
+            measure("virtual thread per task", virtual);
+        } finally {
+            virtual.shutdownNow();
+        }
+    }
+
+    private static void measure(String name, Executor executor) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(TASKS);
+        AtomicInteger completed = new AtomicInteger();
+        long started = System.nanoTime();
+        for (int i = 0; i < TASKS; i++) {
+            executor.execute(() -> {
+                try {
+                    Thread.sleep(BLOCK_MILLIS);
+                    completed.incrementAndGet();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(1, TimeUnit.MINUTES), name + " did not finish");
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        assertEquals(TASKS, completed.get());
+        System.out.printf("[BENCH] %-27s %d tasks blocking %d ms each in %6d ms (%.0f tasks/s)%n",
+                name, TASKS, BLOCK_MILLIS, elapsedMillis, TASKS * 1000.0 / Math.max(1, elapsedMillis));
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.family;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.protobuf.ByteString;
+
+// Rough read benchmark for the Retrieve path: mapped slices against positional channel reads
+// and the roadmap's one-file-per-message layout read through FileInputStream, with and without
+// a buffer. Every variant ends in the ByteString a Retrieve response would carry. The numbers
+// are printed, not asserted, since they depend on the machine; the contents are asserted.
+class MessageStoreReadBenchmarkTest {
+
+    private static final int MESSAGES = 1_000;
+    private static final int PAYLOAD_BYTES = 1024;
+    private static final int WARMUP_ROUNDS = 2;
+    private static final int MEASURED_ROUNDS = 3;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void comparesMappedChannelAndStreamReads() throws Exception {
+        String[] texts = new String[MESSAGES];
+        for (int id = 0; id < MESSAGES; id++) {
+            texts[id] = payload(id);
+        }
+
+        MessageStore mapped = new MessageStore(directory.resolve("mmap"), true);
+        MessageStore channel = new MessageStore(directory.resolve("channel"), false);
+        Path files = Files.createDirectories(directory.resolve("files"));
+        try {
+            for (int id = 0; id < MESSAGES; id++) {
+                mapped.put(id, texts[id]);
+                channel.put(id, texts[id]);
+                Files.write(files.resolve(id + ".msg"), texts[id].getBytes(StandardCharsets.UTF_8));
+            }
+
+            measure("mmap slice", texts, mapped::getBytes);
+            measure("channel read", texts, channel::getBytes);
+            measure("FileInputStream buffered", texts, id -> {
+                try (InputStream in = new BufferedInputStream(new FileInputStream(files.resolve(id + ".msg").toFile()))) {
+                    return ByteString.copyFromUtf8(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+                }
+            });
+            measure("FileInputStream unbuffered", texts, id -> {
+                try (InputStream in = new FileInputStream(files.resolve(id + ".msg").toFile())) {
+                    StringBuilder text = new StringBuilder(PAYLOAD_BYTES);
+                    int b;
+                    while ((b = in.read()) >= 0) {
+                        text.append((char) b);
+                    }
+                    return ByteString.copyFromUtf8(text.toString());
+                }
+            });
+        } finally {
+            mapped.close();
+            channel.close();
+        }
+    }
+
+    private static void measure(String name, String[] texts, Reader reader) throws IOException {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            readAll(texts, reader, round == 0);
+        }
+        long started = System.nanoTime();
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            readAll(texts, reader, false);
+        }
+        long elapsed = System.nanoTime() - started;
+        long reads = (long) MEASURED_ROUNDS * texts.length;
+        System.out.printf("[BENCH] %-27s %8d ns/read %8.1f MB/s%n", name, elapsed / reads,
+                reads * PAYLOAD_BYTES * 1e3 / elapsed);
+    }
+
+    private static void readAll(String[] texts, Reader reader, boolean verify) throws IOException {
+        for (int id = 0; id < texts.length; id++) {
+            ByteString read = reader.read(id);
+            if (verify) {
+                assertEquals(texts[id], read.toStringUtf8(), "message " + id);
+            }
+        }
+    }
+
+    // ASCII only, so the unbuffered byte-at-a-time reader can decode it char by char
+    private static String payload(int id) {
+        StringBuilder text = new StringBuilder(PAYLOAD_BYTES).append(id).append(' ');
+        while (text.length() < PAYLOAD_BYTES) {
+            text.append((char) ('a' + text.length() % 26));
+        }
+        return text.toString();
+    }
+
+    private interface Reader {
+        ByteString read(int id) throws IOException;
+    }
+}
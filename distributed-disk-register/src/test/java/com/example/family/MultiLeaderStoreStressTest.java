@@ -0,0 +1,110 @@
+package com.example.family;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+import family.ChatMessage;
+
+// Local writers and remote replicators hammer one store at once. Every message carries the
+// same timestamp on purpose, so ids can only stay distinct through the origin sequence.
+class MultiLeaderStoreStressTest {
+
+    private static final String SELF = "127.0.0.1:5555";
+    private static final int LOCAL_THREADS = 8;
+    private static final int REMOTE_THREADS = 4;
+    private static final int PER_THREAD = 20_000;
+    private static final long TIMESTAMP = 42;
+
+    @Test
+    void concurrentStoresKeepEveryMessageAndTheClock() throws Exception {
+        MultiLeaderStore store = new MultiLeaderStore(SELF);
+        ExecutorService pool = Executors.newFixedThreadPool(LOCAL_THREADS + REMOTE_THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < LOCAL_THREADS; t++) {
+                int thread = t;
+                workers.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < PER_THREAD; i++) {
+                        store.storeLocal(message("local " + thread + "/" + i, 5555));
+                    }
+                    return null;
+                }));
+            }
+            for (int t = 0; t < REMOTE_THREADS; t++) {
+                String origin = "127.0.0.1:" + (6000 + t);
+                int port = 6000 + t;
+                workers.add(pool.submit(() -> {
+                    start.await();
+                    VectorClock clock = new VectorClock();
+                    for (int i = 0; i < PER_THREAD; i++) {
+                        clock.increment(origin);
+                        store.storeRemote(new VersionedMessage(message("remote " + i, port), clock.copy(), origin));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals((LOCAL_THREADS + REMOTE_THREADS) * PER_THREAD, store.size());
+
+        VectorClock clock = store.getCurrentClock();
+        assertEquals((long) LOCAL_THREADS * PER_THREAD, clock.get(SELF));
+        for (int t = 0; t < REMOTE_THREADS; t++) {
+            assertEquals(PER_THREAD, clock.get("127.0.0.1:" + (6000 + t)));
+        }
+
+        Set<String> ids = new HashSet<>();
+        for (VersionedMessage message : store.getAllMessages()) {
+            ids.add(message.getMessageId());
+        }
+        for (long sequence = 1; sequence <= (long) LOCAL_THREADS * PER_THREAD; sequence++) {
+            assertTrue(ids.contains(SELF + "@" + store.getEpoch() + "#" + sequence),
+                    "missing local sequence " + sequence);
+        }
+        for (int t = 0; t < REMOTE_THREADS; t++) {
+            for (int sequence = 1; sequence <= PER_THREAD; sequence++) {
+                assertTrue(ids.contains("127.0.0.1:" + (6000 + t) + "#" + sequence));
+            }
+        }
+
+        // The lock-free tree updates must land on the same hashes as a single-threaded rebuild
+        MultiLeaderStore replay = new MultiLeaderStore("127.0.0.1:7000");
+        for (VersionedMessage message : store.getAllMessages()) {
+            replay.storeRemote(message);
+        }
+        assertArrayEquals(replay.merkleHashes(), store.merkleHashes());
+
+        store.clear();
+        assertEquals(0, store.size());
+        assertEquals(0L, store.merkleHashes()[MerkleTree.ROOT]);
+    }
+
+    private static ChatMessage message(String text, int port) {
+        return ChatMessage.newBuilder()
+                .setText(text)
+                .setFromHost("127.0.0.1")
+                .setFromPort(port)
+                .setTimestamp(TIMESTAMP)
+                .build();
+    }
+}